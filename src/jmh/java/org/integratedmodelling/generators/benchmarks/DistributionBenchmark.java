@@ -0,0 +1,97 @@
+package org.integratedmodelling.generators.benchmarks;
+
+import org.apache.commons.math3.distribution.IntegerDistribution;
+import org.integratedmodelling.generators.adapters.RandomGeneratorAdapter;
+import org.integratedmodelling.generators.random.DiscreteTable;
+import org.integratedmodelling.generators.random.RandomStream;
+import org.integratedmodelling.generators.random.Sampler;
+import org.integratedmodelling.generators.random.Samplers;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distribution lookup and sampling in {@link RandomGeneratorAdapter}, for each supported
+ * distribution. Specs are the tokens of a URN distribution call separated by colons, as JMH splits
+ * the values passed with <code>-p</code> on commas. Samplers are chosen as the adapter does: a
+ * table for discrete distributions, a direct method where there is one, otherwise the
+ * distribution's own sampler. Concurrent requests are measured end to end by {@link
+ * EncodeBenchmark}.
+ *
+ * @author Ferd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistributionBenchmark {
+
+  private static final int BLOCK_SIZE = 4096;
+
+  @Param({
+    "gaussian:0:1",
+    "uniform:0:1",
+    "lognormal:0:1",
+    "exponential:1",
+    "weibull:1.5:1",
+    "triangular:0:0.5:1",
+    "cauchy:0:1",
+    "beta:2:5",
+    "t:5",
+    "f:5:10",
+    "poisson:4",
+    "binomial:1000:0.3",
+    "pascal:5:0.4",
+    "hypergeometric:100:30:20"
+  })
+  public String spec;
+
+  private final RandomGeneratorAdapter adapter = new RandomGeneratorAdapter();
+  private String[] tokens;
+
+  @Setup
+  public void setup() {
+    tokens = spec.split(":");
+  }
+
+  /** Per-thread sampler and block, as owned by one request. */
+  @State(Scope.Thread)
+  public static class SamplerState {
+
+    Sampler sampler;
+    double[] block = new double[BLOCK_SIZE];
+
+    @Setup
+    public void setup(DistributionBenchmark benchmark) {
+      // an adapter of its own, so that fallback samplers do not share a generator between threads
+      var distribution = new RandomGeneratorAdapter().getDistribution(benchmark.tokens);
+      var random = new RandomStream(42);
+      var table =
+          distribution instanceof IntegerDistribution discrete ? DiscreteTable.of(discrete) : null;
+      var direct = Samplers.direct(distribution, random);
+      sampler =
+          table != null
+              ? table.sampler(random)
+              : direct == null ? Samplers.of(distribution) : direct;
+    }
+  }
+
+  @Benchmark
+  public Object getDistribution() {
+    return adapter.getDistribution(tokens);
+  }
+
+  @Benchmark
+  public double sample(SamplerState state) {
+    return state.sampler.sample();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BLOCK_SIZE)
+  public double[] fill(SamplerState state) {
+    state.sampler.fill(state.block, 0, BLOCK_SIZE);
+    return state.block;
+  }
+}
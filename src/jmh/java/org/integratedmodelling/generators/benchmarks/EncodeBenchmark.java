@@ -0,0 +1,110 @@
+package org.integratedmodelling.generators.benchmarks;
+
+import org.integratedmodelling.generators.adapters.RandomGeneratorAdapter;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Observable;
+import org.integratedmodelling.klab.api.knowledge.Urn;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Concurrent {@link RandomGeneratorAdapter#encode} calls on one shared adapter, as issued by
+ * several contextualizations at once. Each invocation starts one request per thread at the same
+ * time and waits for all of them, so the score is the latency of a batch: with no contention on the
+ * shared caches it stays flat as threads are added until the cores are saturated. Data requests
+ * also use the common fork-join pool inside each call, which the batch competes for.
+ *
+ * @author Ferd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+
+  private static final String GRID = "S2(512,512){bbox=[0.0 100000.0 0.0 100000.0],proj=EPSG:3857}";
+
+  @Param({"1", "4", "8", "16", "32"})
+  public int threads;
+
+  @Param({
+    "klab:random:data:gaussian?seed=42",
+    "klab:random:data:gamma?p0=2&p1=3&seed=42",
+    "klab:random:data:gaussian?sequence=sobol&run=3",
+    "klab:random:objects:polygons?seed=42",
+    "klab:random:objects:points?count=10000&seed=42"
+  })
+  public String urn;
+
+  private final RandomGeneratorAdapter adapter = new RandomGeneratorAdapter();
+  private Urn resource;
+  private Geometry geometry;
+  private Observable observable;
+  private ExecutorService executor;
+
+  /** Counts the values written by a request, which is all a consumer would do at least. */
+  private static class Counter implements Storage.DoubleScanner {
+
+    private final long size;
+    private long count;
+    private double sum;
+
+    Counter(long size) {
+      this.size = size;
+    }
+
+    @Override
+    public void add(double value) {
+      sum += value;
+      count++;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+  }
+
+  @Setup
+  public void setup() {
+    resource = Urn.of(urn);
+    geometry = Geometry.create(GRID);
+    observable = Observable.objects("benchmark");
+    executor = Executors.newFixedThreadPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public long encode() throws Exception {
+    var start = new CountDownLatch(1);
+    List<Future<Long>> requests = new ArrayList<>(threads);
+    for (int t = 0; t < threads; t++) {
+      requests.add(
+          executor.submit(
+              () -> {
+                var filler = new Counter(512L * 512L);
+                var builder = Data.builder("benchmark", observable, geometry);
+                start.await();
+                adapter.encode(resource, filler, builder, geometry, observable, null);
+                return filler.count + (long) Math.signum(filler.sum);
+              }));
+    }
+    start.countDown();
+    long ret = 0;
+    for (var request : requests) {
+      ret += request.get();
+    }
+    return ret;
+  }
+}
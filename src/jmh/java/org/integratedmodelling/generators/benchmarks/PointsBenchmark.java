@@ -0,0 +1,43 @@
+package org.integratedmodelling.generators.benchmarks;
+
+import org.integratedmodelling.generators.utils.RandomPoints;
+import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Envelope;
+import org.integratedmodelling.klab.runtime.scale.space.EnvelopeImpl;
+import org.integratedmodelling.klab.runtime.scale.space.ProjectionImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link RandomPoints} patterns at increasing numbers of points, as coordinates only.
+ *
+ * @author Ferd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PointsBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int count;
+
+  private Envelope envelope;
+
+  @Setup
+  public void setup() {
+    envelope = EnvelopeImpl.create(-10, 10, -10, 10, ProjectionImpl.getDefault());
+  }
+
+  @Benchmark
+  public double[] poissonDisk() {
+    return new RandomPoints(42).poissonDisk(envelope, RandomPoints.distanceFor(envelope, count));
+  }
+
+  @Benchmark
+  public double[] clustered() {
+    return new RandomPoints(42).clustered(envelope, count / 100, 100, 0.05, 0);
+  }
+}
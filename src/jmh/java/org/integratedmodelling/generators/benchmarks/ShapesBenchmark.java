@@ -0,0 +1,42 @@
+package org.integratedmodelling.generators.benchmarks;
+
+import org.integratedmodelling.generators.utils.RandomShapes;
+import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Envelope;
+import org.integratedmodelling.klab.runtime.scale.space.EnvelopeImpl;
+import org.integratedmodelling.klab.runtime.scale.space.ProjectionImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link RandomShapes#create(Envelope, int, int, double, int)} for points (1 vertex), lines
+ * (2) and polygons across grid densities.
+ *
+ * @author Ferd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShapesBenchmark {
+
+  @Param({"1", "2", "5", "12"})
+  public int vertices;
+
+  @Param({"10", "100", "300"})
+  public int divisions;
+
+  private Envelope envelope;
+
+  @Setup
+  public void setup() {
+    envelope = EnvelopeImpl.create(-10, 10, -10, 10, ProjectionImpl.getDefault());
+  }
+
+  @Benchmark
+  public int create() {
+    return new RandomShapes(42).create(envelope, divisions, divisions, 0.5, vertices).size();
+  }
+}
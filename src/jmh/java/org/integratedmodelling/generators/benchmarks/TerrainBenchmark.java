@@ -0,0 +1,64 @@
+package org.integratedmodelling.generators.benchmarks;
+
+import org.integratedmodelling.generators.terrain.Terrain;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction and lookup costs of the diamond-square {@link Terrain}. Lookups scan a 512x512 grid
+ * in the x-major, y-minor order used by the terrain contextualizer.
+ *
+ * @author Ferd
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TerrainBenchmark {
+
+  private static final int GRID = 512;
+
+  @Param({"6", "9", "11"})
+  public int lod;
+
+  @Param({"0.3", "0.7"})
+  public double roughness;
+
+  @Param({"DOUBLE", "FLOAT"})
+  public Terrain.Backend backend;
+
+  private Terrain terrain;
+
+  @Setup
+  public void setup() {
+    terrain = new Terrain(lod, roughness, 0, 1000, 42, backend);
+  }
+
+  @Benchmark
+  public Terrain construct() {
+    return new Terrain(lod, roughness, 0, 1000, 42, backend);
+  }
+
+  @Benchmark
+  public double getAltitude() {
+    return scan(Terrain.Interpolation.NEAREST);
+  }
+
+  @Benchmark
+  public double getAltitudeBilinear() {
+    return scan(Terrain.Interpolation.BILINEAR);
+  }
+
+  private double scan(Terrain.Interpolation interpolation) {
+    double sum = 0;
+    for (int x = 0; x < GRID; x++) {
+      for (int y = 0; y < GRID; y++) {
+        sum += terrain.getAltitude(x * (1.0 / GRID), y * (1.0 / GRID), interpolation);
+      }
+    }
+    return sum;
+  }
+}
@@ -1,8 +1,11 @@
 package org.integratedmodelling.generators;
 
+import org.integratedmodelling.generators.instrumentation.Instrumentation;
 import org.integratedmodelling.klab.extension.KlabComponent;
 import org.pf4j.PluginWrapper;
 
+import java.util.Map;
+
 public class GeneratorsPlugin extends KlabComponent {
 
     /**
@@ -15,4 +18,23 @@ public class GeneratorsPlugin extends KlabComponent {
     public GeneratorsPlugin(PluginWrapper wrapper) {
         super(wrapper);
     }
+
+    /**
+     * Switch the counting of generator calls on or off. Flight recorder events are controlled by the
+     * recording settings instead.
+     *
+     * @param enabled
+     */
+    public void setInstrumentationEnabled(boolean enabled) {
+        Instrumentation.setEnabled(enabled);
+    }
+
+    /**
+     * Timings, throughput and cache statistics of the generators, for the host service to scrape.
+     *
+     * @return a flat map of metric names to values; see {@link Instrumentation#getMetrics()}
+     */
+    public Map<String, Number> getMetrics() {
+        return Instrumentation.getMetrics();
+    }
 }
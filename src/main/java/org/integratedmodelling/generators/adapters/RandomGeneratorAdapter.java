@@ -1,8 +1,22 @@
 package org.integratedmodelling.generators.adapters;
 
 import org.apache.commons.math3.distribution.*;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
 import org.integratedmodelling.common.utils.Utils;
+import org.integratedmodelling.generators.instrumentation.Instrumentation;
+import org.integratedmodelling.generators.random.Autoregressive;
+import org.integratedmodelling.generators.random.DiscreteTable;
+import org.integratedmodelling.generators.random.DistributionKey;
+import org.integratedmodelling.generators.random.GaussianField;
+import org.integratedmodelling.generators.random.QuasiRandom;
+import org.integratedmodelling.generators.random.RandomStream;
+import org.integratedmodelling.generators.random.Sampler;
+import org.integratedmodelling.generators.random.Samplers;
+import org.integratedmodelling.generators.utils.BoundedCache;
+import org.integratedmodelling.generators.utils.RandomPoints;
 import org.integratedmodelling.generators.utils.RandomShapes;
+import org.integratedmodelling.generators.utils.Seeds;
 import org.integratedmodelling.klab.api.data.Data;
 import org.integratedmodelling.klab.api.data.Storage;
 import org.integratedmodelling.klab.api.data.Version;
@@ -13,11 +27,18 @@ import org.integratedmodelling.klab.api.knowledge.Artifact;
 import org.integratedmodelling.klab.api.knowledge.Observable;
 import org.integratedmodelling.klab.api.knowledge.Urn;
 import org.integratedmodelling.klab.api.knowledge.observation.scale.Scale;
+import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Envelope;
+import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Shape;
 import org.integratedmodelling.klab.api.scope.Scope;
 import org.integratedmodelling.klab.api.services.resources.adapters.ResourceAdapter;
 import org.integratedmodelling.klab.api.services.runtime.Notification;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Handles "klab:random:...." URNs. Produces various types of random data, objects, or events. The
@@ -30,7 +51,19 @@ import java.util.*;
  *   <dd>produces numbers for states with the distribution set in the fourth field (resource ID).
  *       Range, distribution and sequence vary according to parameters <code>min</code>, <code>max
  *       </code>, <code>mean</code>, <code>std</code>, <code>variance</code>, <code>alpha</code>,
- *       <code>beta</code>, <code>seed</code>; defaults to normalized distributions.
+ *       <code>beta</code>, <code>seed</code>; defaults to normalized distributions. With a
+ *       <code>seed</code>, the same values are produced on any number of cores. With <code>
+ *       sequence=sobol</code> or <code>halton</code>, values are the inverse CDF of a randomized
+ *       low-discrepancy sequence instead: <code>dimension</code> (0 to 31, default 0) should differ
+ *       between the independent inputs of a model, and <code>run</code> (default 0) numbers the
+ *       runs of a Monte Carlo experiment and is the point of the sequence used. Each cell uses its
+ *       own randomization of the sequence, so the values of a cell over the runs are spread evenly
+ *       over the distribution. The randomization depends on <code>seed</code>, which defaults to 0
+ *       so that runs share it. With
+ *       <code>autocorrelation</code> (the lag-one correlation between ticks) or <code>timescale
+ *       </code> (the relaxation time of an Ornstein-Uhlenbeck process, in milliseconds), each cell
+ *       follows a stationary process in time with the distribution as its marginal, and only the
+ *       values of the last tick are kept; the same <code>seed</code> reproduces the same series.
  *   <dt>events
  *   <dd>produces random events with the shape and duration defined in parameters. The fourth field
  *       (resource ID) can be <code>polygons</code>, <code>points</code> or <code>lines</code>. By
@@ -40,8 +73,20 @@ import java.util.*;
  *   <dt>objects
  *   <dd>produces random objects with the shape defined in parameters. The fourth field (resource
  *       ID) can be <code>polygons</code>, <code>points</code> or <code>lines</code>. By default,
- *       will produce non-overlapping shapes in a 10x10 grid with a 50% probability per cell.
- *       Non-spatial objects will be supported later. *
+ *       will produce non-overlapping shapes in a 10x10 grid with a 50% probability per cell. Shapes
+ *       and attributes are reproducible with <code>seed</code>. Non-spatial objects will be
+ *       supported later. Points can instead follow a pattern over the whole extent: a Poisson-disk
+ *       pattern with a minimum <code>distance</code> or about <code>count</code> points, or a
+ *       cluster process with <code>clusters</code> centers, <code>count</code> points in total
+ *       (default 100 per cluster) scattered by <code>spread</code> around them, and an optional
+ *       minimum <code>distance</code>.
+ *   <dt>fields
+ *   <dd>produces spatially correlated Gaussian states on grids, with the covariance model set in
+ *       the fourth field (resource ID): <code>exponential</code>, <code>gaussian</code> or <code>
+ *       matern</code>. Parameters are the correlation <code>length</code> in the units of the
+ *       extent (default a tenth of its longest side), the Matérn smoothness <code>nu</code>
+ *       (default 1.5), <code>mean</code> (default 0), <code>std</code> (default 1) and <code>seed
+ *       </code>.
  * </dl>
  *
  * @author Ferd
@@ -70,15 +115,43 @@ public class RandomGeneratorAdapter {
   private static final String LOGNORMAL = "lognormal";
   private static final String LOGISTIC = "logistic";
   private static final String UNIFORM = "uniform";
+  private static final String MATERN = "matern";
+  private static final String SOBOL = "sobol";
+  private static final String HALTON = "halton";
 
   private static final String FRACTION = "fraction";
   private static final String YDIVS = "ydivs";
   private static final String XDIVS = "xdivs";
   private static final String STD = "std";
+  private static final String MEAN = "mean";
+  private static final String LENGTH = "length";
+  private static final String NU = "nu";
   private static final String VERTICES = "vertices";
   private static final String GRID = "grid";
   private static final String DURATION = "duration";
   private static final String START = "start";
+  private static final String SEED = "seed";
+  private static final String SEQUENCE = "sequence";
+  private static final String DIMENSION = "dimension";
+  private static final String RUN = "run";
+  private static final String AUTOCORRELATION = "autocorrelation";
+  private static final String TIMESCALE = "timescale";
+  private static final String DISTANCE = "distance";
+  private static final String COUNT = "count";
+  private static final String CLUSTERS = "clusters";
+  private static final String SPREAD = "spread";
+
+  /**
+   * Number of values sampled from each random stream when filling states. Fixed, so that results
+   * for a given seed do not depend on the number of cores.
+   */
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  /** Maximum number of distinct parameterized distributions kept in the cache. */
+  private static final int DISTRIBUTION_CACHE_SIZE = 1024;
+
+  /** Maximum number of object URNs whose parsed attributes are kept. */
+  private static final int ATTRIBUTE_PLAN_CACHE_SIZE = 256;
 
   public static final String POLYGONS = "polygons";
   public static final String LINES = "lines";
@@ -87,6 +160,7 @@ public class RandomGeneratorAdapter {
   public static final String OBJECTS = "objects";
   public static final String EVENTS = "events";
   public static final String DATA = "data";
+  public static final String FIELDS = "fields";
   public static final String NAME = "random";
 
   public static final String P0 = "p0";
@@ -94,7 +168,7 @@ public class RandomGeneratorAdapter {
   public static final String P2 = "p2";
   public static final String P3 = "p3";
 
-  public static String[] namespace_ids = new String[] {DATA, EVENTS, OBJECTS};
+  public static String[] namespace_ids = new String[] {DATA, EVENTS, FIELDS, OBJECTS};
   public static String[] shape_ids = new String[] {LINES, POINTS, POLYGONS};
   public static String[] distribution_ids =
       new String[] {
@@ -123,17 +197,24 @@ public class RandomGeneratorAdapter {
   public static String[] object_attribute_ids =
       new String[] {
         FRACTION, XDIVS, YDIVS, VERTICES, STD, GRID,
-        P0, P1, P2, P3, DURATION, START
+        P0, P1, P2, P3, DURATION, START, SEED,
+        DISTANCE, COUNT, CLUSTERS, SPREAD
       };
 
-  private Map<String, Object> distributions = Collections.synchronizedMap(new HashMap<>());
-  private RandomShapes shapeGenerator = new RandomShapes();
+  private final BoundedCache<DistributionKey, ResolvedDistribution> distributions =
+      new BoundedCache<>(DISTRIBUTION_CACHE_SIZE);
+  private final RunStates<EventProcess> eventProcesses = new RunStates<>(EventProcess::new);
+  private final RunStates<DataProcess> dataProcesses = new RunStates<>(DataProcess::new);
+  private final BoundedCache<Urn, AttributePlan> attributePlans =
+      new BoundedCache<>(ATTRIBUTE_PLAN_CACHE_SIZE);
 
   public RandomGeneratorAdapter() {
     Arrays.sort(namespace_ids);
     Arrays.sort(shape_ids);
     Arrays.sort(distribution_ids);
     Arrays.sort(object_attribute_ids);
+    Instrumentation.register("random.distributions", distributions);
+    Instrumentation.register("random.attributes", attributePlans);
   }
 
   @ResourceAdapter.Encoder
@@ -144,18 +225,44 @@ public class RandomGeneratorAdapter {
       Geometry geometry,
       Observable observable,
       Scope scope) {
-    switch (urn.getNamespace()) {
-      case DATA -> makeData(urn, filler);
-      case EVENTS -> makeEvents(urn, builder, geometry);
-      case OBJECTS -> makeObjects(urn, builder, geometry, observable, scope);
-      default ->
-          builder.notification(
-              Notification.error(
-                  "Random generator adapter: cannot establish " + "what to do with " + urn));
+    var span =
+        Instrumentation.begin(
+            switch (urn.getNamespace()) {
+              case DATA -> "random.data";
+              case FIELDS -> "random.fields";
+              case EVENTS -> "random.events";
+              case OBJECTS -> "random.objects";
+              default -> "random";
+            },
+            urn);
+    long items = 0;
+    try {
+      items =
+          switch (urn.getNamespace()) {
+            case DATA ->
+                urn.getParameters().containsKey(AUTOCORRELATION)
+                        || urn.getParameters().containsKey(TIMESCALE)
+                    ? makeProcess(urn, filler, geometry, scope)
+                    : makeData(urn, filler);
+            case FIELDS -> makeField(urn, filler, geometry);
+            case EVENTS -> makeEvents(urn, builder, geometry, observable, scope);
+            case OBJECTS -> makeObjects(urn, builder, geometry, observable, scope);
+            default -> {
+              builder.notification(
+                  Notification.error(
+                      "Random generator adapter: cannot establish " + "what to do with " + urn));
+              yield 0;
+            }
+          };
+    } finally {
+      span.end(items);
     }
   }
 
-  private void makeObjects(
+  /**
+   * @return the number of objects built
+   */
+  private long makeObjects(
       Urn urn, Data.Builder builder, Geometry geometry, Observable observable, Scope scope) {
 
     int vertices =
@@ -182,88 +289,549 @@ public class RandomGeneratorAdapter {
 
     var scale = Scale.create(geometry);
     var obs = Observable.promote(observable.getSemantics().singular());
+    long seed = getSeed(urn);
+    var shapeGenerator = new RandomShapes(Seeds.derive(seed, 0));
+    var context = new RequestContext(Seeds.derive(seed, 1));
+    var attributes = attributePlans.get(urn, AttributePlan::compile);
+    var samplers = attributes.bind(context);
+    int n = 0;
 
     if (scale.getSpace() != null) {
 
       var envelope = scale.getSpace().getEnvelope();
 
-      int n = 0;
-      for (var shape :
+      var shapes =
           switch (urn.getResourceId()) {
-            case POINTS -> shapeGenerator.create(envelope, xdivs, ydivs, probability, 1);
-            case LINES -> shapeGenerator.create(envelope, xdivs, ydivs, probability, 2);
-            case POLYGONS -> shapeGenerator.create(envelope, xdivs, ydivs, probability, vertices);
+            case POINTS ->
+                urn.getParameters().containsKey(DISTANCE)
+                        || urn.getParameters().containsKey(COUNT)
+                        || urn.getParameters().containsKey(CLUSTERS)
+                    ? makePoints(urn, Seeds.derive(seed, 0), envelope)
+                    : shapeGenerator.stream(envelope, xdivs, ydivs, probability, 1);
+            case LINES -> shapeGenerator.stream(envelope, xdivs, ydivs, probability, 2);
+            case POLYGONS -> shapeGenerator.stream(envelope, xdivs, ydivs, probability, vertices);
             default -> throw new KlabIllegalArgumentException("random adapter: unrecognized shape");
-          }) {
+          };
 
-        /*
-         * TODO honor any filters on the shapes - area, width, length, whatever
-         */
+      // shapes are generated lazily and handed to the builder one at a time; closing the stream
+      // ends the generator's span if the loop fails
+      try (shapes) {
+        for (var it = shapes.iterator(); it.hasNext(); ) {
 
-        var oScale = scale.with(shape);
-        var oBuilder =
-            builder.object(
-                artifactName + "_" + (++n),
-                obs,
-                oScale.as(Geometry.class),
-                Urn.of("random" + ":" + Utils.Names.fastName()));
-
-        if (!urn.getParameters().isEmpty()) {
-          for (String attribute : urn.getParameters().keySet()) {
-            if (Arrays.binarySearch(object_attribute_ids, attribute) < 0) {
-              Object value = getAttributeValue(urn.getParameters().get(attribute));
-              if (value != null) {
-                oBuilder.metadata(attribute, value);
-              }
-            }
+          var shape = it.next();
+
+          /*
+           * TODO honor any filters on the shapes - area, width, length, whatever
+           */
+
+          var oScale = scale.with(shape);
+          var oBuilder =
+              builder.object(
+                  artifactName + "_" + (++n),
+                  obs,
+                  oScale.as(Geometry.class),
+                  Urn.of("random" + ":" + Utils.Names.fastName()));
+
+          for (int i = 0; i < attributes.names().length; i++) {
+            oBuilder.metadata(
+                attributes.names()[i],
+                samplers[i] == null ? attributes.constants()[i] : samplers[i].sample());
           }
+          //        oBuilder.build();
         }
-        //        oBuilder.build();
       }
     }
+    return n;
   }
 
-  private void makeEvents(Urn urn, Data.Builder builder, Geometry geometry) {}
+  /** Points following the pattern set in the URN over the whole envelope. */
+  private static Stream<Shape> makePoints(Urn urn, long seed, Envelope envelope) {
+    var generator = new RandomPoints(seed);
+    double[] points;
+    try {
+      if (urn.getParameters().containsKey(CLUSTERS)) {
+        int clusters = getParameter(urn, CLUSTERS, 1);
+        double area =
+            (envelope.getMaxX() - envelope.getMinX()) * (envelope.getMaxY() - envelope.getMinY());
+        points =
+            generator.clustered(
+                envelope,
+                clusters,
+                getParameter(urn, COUNT, 100.0 * clusters) / clusters,
+                getParameter(urn, SPREAD, Math.sqrt(area / clusters) / 4),
+                getParameter(urn, DISTANCE, 0.0));
+      } else {
+        points =
+            generator.poissonDisk(
+                envelope,
+                urn.getParameters().containsKey(DISTANCE)
+                    ? getParameter(urn, DISTANCE, 0.0)
+                    : RandomPoints.distanceFor(envelope, getParameter(urn, COUNT, 1000)));
+      }
+    } catch (IllegalArgumentException e) {
+      throw new KlabIllegalArgumentException("random adapter: " + e.getMessage());
+    }
+    return RandomPoints.shapes(points, envelope);
+  }
 
-  private void makeData(Urn urn, Storage.DoubleScanner filler) {
-    var distribution = getDistribution(urn);
-    for (int i = 0; i < filler.size(); i++) {
-      filler.add(sample(distribution));
+  /**
+   * Events are generated one time step at a time: each call advances the event process for the URN
+   * to the time of the geometry passed, retiring the events that have ended and starting new ones
+   * with Poisson arrivals among the free cells. Only the active events are kept between calls, in
+   * a process of their own for each scope, so that runs in different contexts do not interfere. A
+   * call whose time does not follow the previous one in the same scope starts a new run.
+   */
+  private long makeEvents(
+      Urn urn, Data.Builder builder, Geometry geometry, Observable observable, Scope scope) {
+
+    var scale = Scale.create(geometry);
+    if (scale.getSpace() == null) {
+      builder.notification(
+          Notification.warning("Random generator adapter: non-spatial events are not supported"));
+      return 0;
+    }
+
+    long time = scale.getTime() == null ? 0 : scale.getTime().getStart().getMilliseconds();
+    var process = eventProcesses.get(scope, urn);
+    synchronized (process) {
+      return process.advance(time, scale, builder, observable);
     }
   }
 
-  private synchronized Object getAttributeValue(String string) {
-    if (Utils.Numbers.encodesDouble(string) || Utils.Numbers.encodesLong(string)) {
-      return Double.parseDouble(string);
+  /**
+   * State kept between the time steps of runs, one per scope and URN. Scopes are only weakly
+   * referenced, so the state of a run is released with its scope and never dropped while the run
+   * goes on.
+   */
+  private static final class RunStates<T> {
+
+    private final Map<Scope, Map<Urn, T>> states = new WeakHashMap<>();
+    private final Function<Urn, T> factory;
+
+    RunStates(Function<Urn, T> factory) {
+      this.factory = factory;
     }
-    String[] tokens = Utils.Strings.parseAsFunctionCall(string);
-    if (tokens.length > 0 && Arrays.binarySearch(distribution_ids, tokens[0]) >= 0) {
-      return sampleDistribution(tokens);
+
+    synchronized T get(Scope scope, Urn urn) {
+      return states.computeIfAbsent(scope, s -> new HashMap<>()).computeIfAbsent(urn, factory);
     }
+  }
+
+  private record ActiveEvent(int cell, long end) {}
+
+  /** State of the event process for one URN in one scope across time steps. */
+  private class EventProcess {
 
-    return null;
+    private final Urn urn;
+    private final long seed;
+    private final int xdivs, ydivs, vertices;
+    private final double probability;
+    private final double minDuration, maxDuration;
+    // all cells with the free ones first, so that a free cell is drawn with one index; slots holds
+    // the position of each cell
+    private final int[] cells;
+    private final int[] slots;
+    private int free;
+    private final PriorityQueue<ActiveEvent> active =
+        new PriorityQueue<>(Comparator.comparingLong(ActiveEvent::end));
+    private long tick = -1;
+    private long lastTime = Long.MIN_VALUE;
+    private int n = 0;
+
+    EventProcess(Urn urn) {
+      this.urn = urn;
+      this.seed = getSeed(urn);
+      this.xdivs = getParameter(urn, XDIVS, 10);
+      this.ydivs = getParameter(urn, YDIVS, 10);
+      this.vertices =
+          switch (urn.getResourceId()) {
+            case POINTS -> 1;
+            case LINES -> 2;
+            case POLYGONS -> getParameter(urn, VERTICES, 5);
+            default -> throw new KlabIllegalArgumentException("random adapter: unrecognized shape");
+          };
+      this.probability =
+          urn.getParameters().containsKey(FRACTION)
+              ? Double.parseDouble(urn.getParameters().get(FRACTION))
+              : 0.1;
+      // durations in ticks, between 0.1 and 2x the mean interval between events in a cell, and
+      // never beyond the duration set
+      this.maxDuration =
+          urn.getParameters().containsKey(DURATION)
+              ? Double.parseDouble(urn.getParameters().get(DURATION))
+              : 2.0 / probability;
+      this.minDuration = Math.min(0.1 / probability, maxDuration);
+      this.cells = new int[xdivs * ydivs];
+      this.slots = new int[xdivs * ydivs];
+      clear();
+    }
+
+    private void clear() {
+      for (int i = 0; i < cells.length; i++) {
+        cells[i] = slots[i] = i;
+      }
+      free = cells.length;
+    }
+
+    /** Move the free cell at the slot past the free ones and return it. */
+    private int occupy(int slot) {
+      int cell = cells[slot];
+      swap(slot, --free);
+      return cell;
+    }
+
+    private void release(int cell) {
+      swap(slots[cell], free++);
+    }
+
+    private void swap(int i, int j) {
+      int a = cells[i], b = cells[j];
+      cells[i] = b;
+      slots[b] = i;
+      cells[j] = a;
+      slots[a] = j;
+    }
+
+    /**
+     * @return the number of events started
+     */
+    int advance(long time, Scale scale, Data.Builder builder, Observable observable) {
+
+      if (time <= lastTime) {
+        tick = -1;
+        active.clear();
+        clear();
+      }
+      lastTime = time;
+      tick++;
+
+      while (!active.isEmpty() && active.peek().end() <= tick) {
+        release(active.poll().cell());
+      }
+
+      if (free == 0 || probability <= 0) {
+        return 0;
+      }
+
+      var random = new RandomStream(Seeds.derive(seed, tick));
+      var shapes = new RandomShapes(random.nextLong());
+      int arrivals =
+          Math.min(
+              free,
+              new PoissonDistribution(
+                      random,
+                      probability * free,
+                      PoissonDistribution.DEFAULT_EPSILON,
+                      PoissonDistribution.DEFAULT_MAX_ITERATIONS)
+                  .sample());
+
+      String artifactName =
+          observable.getStatedName() == null
+              ? urn.getResourceId().substring(0, urn.getResourceId().length() - 1)
+              : observable.getStatedName();
+      var obs = Observable.promote(observable.getSemantics().singular());
+      var envelope = scale.getSpace().getEnvelope();
+
+      for (int i = 0; i < arrivals; i++) {
+        // every free cell is equally likely
+        int cell = occupy(random.nextInt(free));
+        long duration =
+            Math.max(
+                1,
+                (long) Math.ceil(minDuration + random.nextDouble() * (maxDuration - minDuration)));
+        active.add(new ActiveEvent(cell, tick + duration));
+
+        var shape = shapes.create(envelope, xdivs, ydivs, cell % xdivs, cell / xdivs, vertices);
+        builder
+            .object(
+                artifactName + "_" + (++n),
+                obs,
+                scale.with(shape).as(Geometry.class),
+                Urn.of("random" + ":" + Utils.Names.fastName()))
+            .metadata(DURATION, (double) duration);
+      }
+      return arrivals;
+    }
+  }
+
+  private static int getParameter(Urn urn, String parameter, int defaultValue) {
+    return urn.getParameters().containsKey(parameter)
+        ? Integer.parseInt(urn.getParameters().get(parameter))
+        : defaultValue;
+  }
+
+  private static double getParameter(Urn urn, String parameter, double defaultValue) {
+    return urn.getParameters().containsKey(parameter)
+        ? Double.parseDouble(urn.getParameters().get(parameter))
+        : defaultValue;
   }
 
-  private Double sampleDistribution(String[] tokens) {
-    Object distribution = getDistribution(tokens);
-    if (distribution instanceof RealDistribution) {
-      return ((RealDistribution) distribution).sample();
-    } else if (distribution instanceof IntegerDistribution) {
-      return (double) ((IntegerDistribution) distribution).sample();
+  /**
+   * Fill the state in chunks of fixed size, each sampled from its own stream derived from the seed
+   * and the chunk index, so the result only depends on the seed. Chunks are sampled in parallel in
+   * waves of one chunk per core and the wave is then passed to the scanner in order. With a
+   * quasi-random sequence, every cell takes the point of the run from the stream of its own index
+   * instead.
+   *
+   * @return the number of values produced
+   */
+  private long makeData(Urn urn, Storage.DoubleScanner filler) {
+
+    String[] tokens = getDistributionTokens(urn);
+    var key = DistributionKey.of(tokens);
+    if (key == null) {
+      throw new KlabIllegalArgumentException(
+          "random adapter: non-numeric parameters for distribution " + tokens[0]);
+    }
+    // validates the parameters and builds any table before any work is done
+    getDistribution(key);
+    var sequence = getSequence(urn);
+    long seed = getSeed(urn);
+    long size = filler.size();
+    // the point of the quasi-random sequence used by all cells in this run
+    long run = sequence == null ? 0 : getParameter(urn, RUN, 0);
+    int wave = ForkJoinPool.getCommonPoolParallelism();
+    double[] buffer = new double[(int) Math.min(size, (long) CHUNK_SIZE * wave)];
+
+    for (long start = 0; start < size; start += buffer.length) {
+      long firstChunk = start / CHUNK_SIZE;
+      int length = (int) Math.min(buffer.length, size - start);
+      int chunks = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      IntStream.range(0, chunks)
+          .parallel()
+          .forEach(
+              k -> {
+                var sampler =
+                    sequence == null
+                        ? createSampler(key, new RandomStream(Seeds.derive(seed, firstChunk + k)))
+                        : createSampler(key, sequence, run, (firstChunk + k) * CHUNK_SIZE);
+                sampler.fill(
+                    buffer, k * CHUNK_SIZE, Math.min(CHUNK_SIZE, length - k * CHUNK_SIZE));
+              });
+      for (int i = 0; i < length; i++) {
+        filler.add(buffer[i]);
+      }
     }
-    return null;
+    return size;
   }
 
-  private double sample(Object distribution) {
-    if (distribution instanceof RealDistribution) {
-      return ((RealDistribution) distribution).sample();
-    } else if (distribution instanceof IntegerDistribution) {
-      return (double) ((IntegerDistribution) distribution).sample();
+  /**
+   * Temporally correlated states are produced one time step at a time: each call advances the
+   * process for the URN to the time of the geometry passed, updating the value of each cell in
+   * place. As with events, each scope has a process of its own, so that runs in different contexts
+   * neither restart nor advance each other. A call whose time does not follow the previous one in
+   * the same scope, or with a different number of cells, starts a new run.
+   *
+   * @return the number of values produced
+   */
+  private long makeProcess(Urn urn, Storage.DoubleScanner filler, Geometry geometry, Scope scope) {
+    var scale = Scale.create(geometry);
+    long time = scale.getTime() == null ? 0 : scale.getTime().getStart().getMilliseconds();
+    var process = dataProcesses.get(scope, urn);
+    synchronized (process) {
+      return process.advance(time, filler);
     }
-    return Double.NaN;
   }
 
-  private Object getDistribution(Urn urn) {
+  /** State of the temporal process for one data URN in one scope across time steps. */
+  private class DataProcess {
+
+    private final long seed;
+    private final DoubleUnaryOperator marginal;
+    private final double autocorrelation;
+    private final double timescale;
+    private Autoregressive state;
+    private long lastTime = Long.MIN_VALUE;
+
+    DataProcess(Urn urn) {
+      String[] tokens = getDistributionTokens(urn);
+      var key = DistributionKey.of(tokens);
+      if (key == null) {
+        throw new KlabIllegalArgumentException(
+            "random adapter: non-numeric parameters for distribution " + tokens[0]);
+      }
+      var resolved = getDistribution(key);
+      this.marginal = Samplers.fromNormal(resolved.distribution(), resolved.table());
+      this.seed = getSeed(urn);
+      this.autocorrelation = getParameter(urn, AUTOCORRELATION, 0.0);
+      this.timescale = getParameter(urn, TIMESCALE, 0.0);
+      if (urn.getParameters().containsKey(TIMESCALE) && timescale <= 0) {
+        throw new KlabIllegalArgumentException("random adapter: timescale must be positive");
+      }
+      if (autocorrelation < -1 || autocorrelation > 1) {
+        throw new KlabIllegalArgumentException(
+            "random adapter: autocorrelation must be between -1 and 1");
+      }
+    }
+
+    /**
+     * @return the number of values produced
+     */
+    long advance(long time, Storage.DoubleScanner filler) {
+      long size = filler.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new KlabIllegalArgumentException(
+            "random adapter: too many cells for a temporal process: " + size);
+      }
+      if (state == null || state.size() != size) {
+        state = new Autoregressive((int) size, seed);
+      } else if (time <= lastTime) {
+        state.restart();
+      }
+      double phi =
+          timescale > 0 && state.getStep() >= 0
+              ? Math.exp(-(time - lastTime) / timescale)
+              : autocorrelation;
+      lastTime = time;
+      state.advance(phi);
+      state.scan(marginal, filler::add);
+      return size;
+    }
+  }
+
+  /**
+   * Fill a grid state with a correlated Gaussian field. The values for a seed do not depend on the
+   * number of cores.
+   *
+   * @return the number of values produced
+   */
+  private long makeField(Urn urn, Storage.DoubleScanner filler, Geometry geometry) {
+
+    var scale = Scale.create(geometry);
+    if (scale.getSpace() == null || scale.getSpace().getShape().size() != 2) {
+      throw new KlabIllegalArgumentException("random adapter: fields can only be built on grids");
+    }
+    var covariance =
+        switch (urn.getResourceId()) {
+          case EXPONENTIAL -> GaussianField.Covariance.EXPONENTIAL;
+          case GAUSSIAN -> GaussianField.Covariance.GAUSSIAN;
+          case MATERN -> GaussianField.Covariance.MATERN;
+          default ->
+              throw new KlabIllegalArgumentException(
+                  "random adapter: unknown covariance model " + urn.getResourceId());
+        };
+    int nx = scale.getSpace().getShape().get(0).intValue();
+    int ny = scale.getSpace().getShape().get(1).intValue();
+    var envelope = scale.getSpace().getEnvelope();
+    double width = envelope.getMaxX() - envelope.getMinX();
+    double height = envelope.getMaxY() - envelope.getMinY();
+    try {
+      new GaussianField(
+              covariance,
+              getParameter(urn, LENGTH, Math.max(width, height) / 10),
+              getParameter(urn, NU, 1.5),
+              getParameter(urn, MEAN, 0.0),
+              getParameter(urn, STD, 1.0),
+              getSeed(urn))
+          .scan(nx, ny, width / nx, height / ny, filler::add);
+    } catch (IllegalArgumentException e) {
+      throw new KlabIllegalArgumentException("random adapter: " + e.getMessage());
+    }
+    return (long) nx * ny;
+  }
+
+  /**
+   * @return the quasi-random sequence set by the URN, or null for pseudo-random values
+   */
+  private static QuasiRandom getSequence(Urn urn) {
+    if (!urn.getParameters().containsKey(SEQUENCE)) {
+      return null;
+    }
+    var sequence =
+        switch (urn.getParameters().get(SEQUENCE)) {
+          case SOBOL -> QuasiRandom.Sequence.SOBOL;
+          case HALTON -> QuasiRandom.Sequence.HALTON;
+          default ->
+              throw new KlabIllegalArgumentException(
+                  "random adapter: unknown sequence " + urn.getParameters().get(SEQUENCE));
+        };
+    long seed =
+        urn.getParameters().containsKey(SEED) ? Long.parseLong(urn.getParameters().get(SEED)) : 0;
+    try {
+      return QuasiRandom.of(sequence, getParameter(urn, DIMENSION, 0), seed);
+    } catch (IllegalArgumentException e) {
+      throw new KlabIllegalArgumentException("random adapter: " + e.getMessage());
+    }
+  }
+
+  private long getSeed(Urn urn) {
+    return urn.getParameters().containsKey(SEED)
+        ? Long.parseLong(urn.getParameters().get(SEED))
+        : Seeds.random();
+  }
+
+  /**
+   * Random state for one request. Never shared between threads, so that concurrent requests don't
+   * contend on any generator; samplers are created on first use from the cached distributions.
+   */
+  private class RequestContext {
+
+    private final RandomStream random;
+    private final Map<DistributionKey, Sampler> samplers = new HashMap<>();
+
+    RequestContext(long seed) {
+      this.random = new RandomStream(seed);
+    }
+
+    Sampler getSampler(DistributionKey key) {
+      return samplers.computeIfAbsent(key, k -> createSampler(k, random));
+    }
+  }
+
+  /**
+   * The metadata attributes of an objects URN, parsed once: each attribute is either a constant or
+   * a distribution to sample for each object. Attributes that are neither are dropped.
+   */
+  private record AttributePlan(
+      String[] names, Double[] constants, DistributionKey[] distributions) {
+
+    static AttributePlan compile(Urn urn) {
+      List<String> names = new ArrayList<>();
+      List<Double> constants = new ArrayList<>();
+      List<DistributionKey> distributions = new ArrayList<>();
+      for (String attribute : urn.getParameters().keySet()) {
+        if (Arrays.binarySearch(object_attribute_ids, attribute) >= 0) {
+          continue;
+        }
+        String value = urn.getParameters().get(attribute);
+        DistributionKey key = null;
+        Double constant = null;
+        if (Utils.Numbers.encodesDouble(value) || Utils.Numbers.encodesLong(value)) {
+          constant = Double.parseDouble(value);
+        } else {
+          String[] tokens = Utils.Strings.parseAsFunctionCall(value);
+          if (tokens.length > 0 && Arrays.binarySearch(distribution_ids, tokens[0]) >= 0) {
+            key = DistributionKey.of(tokens);
+          }
+        }
+        if (constant != null || key != null) {
+          names.add(attribute);
+          constants.add(constant);
+          distributions.add(key);
+        }
+      }
+      return new AttributePlan(
+          names.toArray(new String[0]),
+          constants.toArray(new Double[0]),
+          distributions.toArray(new DistributionKey[0]));
+    }
+
+    /**
+     * @return the samplers for the request, aligned with the names; null where the value is a
+     *     constant
+     */
+    Sampler[] bind(RequestContext context) {
+      Sampler[] ret = new Sampler[names.length];
+      for (int i = 0; i < names.length; i++) {
+        if (distributions[i] != null) {
+          ret[i] = context.getSampler(distributions[i]);
+        }
+      }
+      return ret;
+    }
+  }
+
+  private String[] getDistributionTokens(Urn urn) {
 
     List<String> tokens = new ArrayList<>();
     tokens.add(urn.getResourceId());
@@ -274,33 +842,74 @@ public class RandomGeneratorAdapter {
       tokens.add(urn.getParameters().get("p" + i));
     }
 
-    return getDistribution(tokens.toArray(new String[0]));
+    return tokens.toArray(new String[0]);
   }
 
-  public synchronized Object getDistribution(String[] tokens) {
+  public Object getDistribution(String[] tokens) {
+    var key = DistributionKey.of(tokens);
+    return key == null ? null : getDistribution(key).distribution();
+  }
 
-    String signature = Arrays.toString(tokens);
-    if (distributions.containsKey(signature)) {
-      return distributions.get(signature);
-    }
+  /**
+   * A validated distribution with, for discrete distributions that can be tabulated, the table
+   * that all requests sample from.
+   */
+  private record ResolvedDistribution(Object distribution, DiscreteTable table) {}
 
-    List<Double> params = new ArrayList<>();
-    for (int i = 1; i < tokens.length; i++) {
-      try {
-        params.add(Double.parseDouble(tokens[i]));
-      } catch (NumberFormatException e) {
-        return null;
-      }
+  private ResolvedDistribution getDistribution(DistributionKey key) {
+    return distributions.get(
+        key,
+        k -> {
+          Object ret = createDistribution(k.id(), k.parameters(), new Well19937c());
+          if (ret == null) {
+            throw new IllegalArgumentException(
+                "random adapter: distribution "
+                    + k.id()
+                    + " called with wrong parameters or unknown");
+          }
+          return new ResolvedDistribution(
+              ret, ret instanceof IntegerDistribution discrete ? DiscreteTable.of(discrete) : null);
+        });
+  }
+
+  /**
+   * Sampler drawing from the passed generator: a table lookup for tabulated discrete
+   * distributions, a direct method for the continuous families that have one, otherwise a copy of
+   * the distribution bound to the generator.
+   */
+  private Sampler createSampler(DistributionKey key, RandomGenerator random) {
+    var resolved = getDistribution(key);
+    if (resolved.table() != null) {
+      return resolved.table().sampler(random);
     }
+    var direct = Samplers.direct(resolved.distribution(), random);
+    return direct == null
+        ? Samplers.of(createDistribution(key.id(), key.parameters(), random))
+        : direct;
+  }
+
+  /** Sampler inverting one point of a quasi-random sequence in consecutive streams. */
+  private Sampler createSampler(
+      DistributionKey key, QuasiRandom sequence, long index, long stream) {
+    var resolved = getDistribution(key);
+    return Samplers.inverse(resolved.distribution(), resolved.table(), sequence, index, stream);
+  }
+
+  /**
+   * Build the distribution named by the passed id, drawing from the passed generator.
+   *
+   * @return the distribution, or null if the id is unknown or the parameters don't fit it
+   */
+  private static Object createDistribution(String id, List<Double> params, RandomGenerator rng) {
 
     Object ret = null;
 
-    switch (tokens[0]) {
+    switch (id) {
       case UNIFORM:
         if (params.isEmpty()) {
-          ret = new UniformRealDistribution();
+          ret = new UniformRealDistribution(rng, 0, 1);
         } else if (params.size() == 2) {
-          ret = new UniformRealDistribution(params.get(0), params.get(1));
+          ret = new UniformRealDistribution(rng, params.get(0), params.get(1));
         }
         break;
       //            case LOGISTIC:
@@ -310,16 +919,16 @@ public class RandomGeneratorAdapter {
       //                break;
       case LOGNORMAL:
         if (params.isEmpty()) {
-          ret = new LogNormalDistribution();
+          ret = new LogNormalDistribution(rng, 0, 1);
         } else if (params.size() == 2) {
-          ret = new LogNormalDistribution(params.get(0), params.get(1));
+          ret = new LogNormalDistribution(rng, params.get(0), params.get(1));
         }
         break;
       case GAUSSIAN:
         if (params.isEmpty()) {
-          ret = new NormalDistribution();
+          ret = new NormalDistribution(rng, 0, 1);
         } else if (params.size() == 2) {
-          ret = new NormalDistribution(params.get(0), params.get(1));
+          ret = new NormalDistribution(rng, params.get(0), params.get(1));
         }
         break;
       //            case LEVY:
@@ -329,9 +938,9 @@ public class RandomGeneratorAdapter {
       //                break;
       case WEIBULL:
         if (params.size() == 2) {
-          ret = new WeibullDistribution(params.get(0), params.get(1));
+          ret = new WeibullDistribution(rng, params.get(0), params.get(1));
         } else if (params.size() == 3) {
-          ret = new WeibullDistribution(params.get(0), params.get(1), params.get(2));
+          ret = new WeibullDistribution(rng, params.get(0), params.get(1), params.get(2));
         }
         break;
       //            case PARETO:
@@ -356,23 +965,23 @@ public class RandomGeneratorAdapter {
       //                break;
       case TRIANGULAR:
         if (params.size() == 3) {
-          ret = new TriangularDistribution(params.get(0), params.get(1), params.get(2));
+          ret = new TriangularDistribution(rng, params.get(0), params.get(1), params.get(2));
         }
         break;
       case CAUCHY:
         if (params.isEmpty()) {
-          ret = new CauchyDistribution();
+          ret = new CauchyDistribution(rng, 0, 1);
         } else if (params.size() == 2) {
-          ret = new CauchyDistribution(params.get(0), params.get(1));
+          ret = new CauchyDistribution(rng, params.get(0), params.get(1));
         } else if (params.size() == 3) {
-          ret = new CauchyDistribution(params.get(0), params.get(1), params.get(2));
+          ret = new CauchyDistribution(rng, params.get(0), params.get(1), params.get(2));
         }
         break;
       case BETA:
         if (params.size() == 2) {
-          ret = new BetaDistribution(params.get(0), params.get(1));
+          ret = new BetaDistribution(rng, params.get(0), params.get(1));
         } else if (params.size() == 3) {
-          ret = new BetaDistribution(params.get(0), params.get(1), params.get(2));
+          ret = new BetaDistribution(rng, params.get(0), params.get(1), params.get(2));
         }
         break;
       //            case NAKAGAMI:
@@ -385,23 +994,23 @@ public class RandomGeneratorAdapter {
       //                break;
       case T:
         if (params.size() == 1) {
-          ret = new TDistribution(params.get(0));
+          ret = new TDistribution(rng, params.get(0));
         } else if (params.size() == 2) {
-          ret = new TDistribution(params.get(0), params.get(1));
+          ret = new TDistribution(rng, params.get(0), params.get(1));
         }
         break;
       case F:
         if (params.size() == 2) {
-          ret = new FDistribution(params.get(0), params.get(1));
+          ret = new FDistribution(rng, params.get(0), params.get(1));
         } else if (params.size() == 3) {
-          ret = new FDistribution(params.get(0), params.get(1), params.get(2));
+          ret = new FDistribution(rng, params.get(0), params.get(1), params.get(2));
         }
         break;
       case EXPONENTIAL:
         if (params.size() == 1) {
-          ret = new ExponentialDistribution(params.getFirst());
+          ret = new ExponentialDistribution(rng, params.getFirst());
         } else if (params.size() == 2) {
-          ret = new ExponentialDistribution(params.get(0), params.get(1));
+          ret = new ExponentialDistribution(rng, params.get(0), params.get(1));
         }
         break;
       //            case LAPLACE:
@@ -411,7 +1020,7 @@ public class RandomGeneratorAdapter {
       //                break;
       case BINOMIAL:
         if (params.size() == 2) {
-          ret = new BinomialDistribution(params.get(0).intValue(), params.get(1));
+          ret = new BinomialDistribution(rng, params.get(0).intValue(), params.get(1));
         }
         break;
       //            case GEOMETRIC:
@@ -423,32 +1032,40 @@ public class RandomGeneratorAdapter {
         if (params.size() == 3) {
           ret =
               new HypergeometricDistribution(
-                  params.get(0).intValue(), params.get(1).intValue(), params.get(2).intValue());
+                  rng,
+                  params.get(0).intValue(),
+                  params.get(1).intValue(),
+                  params.get(2).intValue());
         }
         break;
       case PASCAL:
         if (params.size() == 2) {
-          ret = new PascalDistribution(params.get(0).intValue(), params.get(1));
+          ret = new PascalDistribution(rng, params.get(0).intValue(), params.get(1));
         }
         break;
       case POISSON:
         if (params.isEmpty()) {
-          ret = new PoissonDistribution(1.0);
+          ret =
+              new PoissonDistribution(
+                  rng,
+                  1.0,
+                  PoissonDistribution.DEFAULT_EPSILON,
+                  PoissonDistribution.DEFAULT_MAX_ITERATIONS);
         } else if (params.size() == 1) {
-          ret = new PoissonDistribution(params.get(0));
+          ret =
+              new PoissonDistribution(
+                  rng,
+                  params.get(0),
+                  PoissonDistribution.DEFAULT_EPSILON,
+                  PoissonDistribution.DEFAULT_MAX_ITERATIONS);
         } else if (params.size() == 2) {
-          ret = new PoissonDistribution(params.get(0), params.get(1));
+          ret =
+              new PoissonDistribution(
+                  rng, params.get(0), params.get(1), PoissonDistribution.DEFAULT_MAX_ITERATIONS);
         }
         break;
     }
 
-    if (ret == null) {
-      throw new IllegalArgumentException(
-          "random adapter: distribution " + tokens[0] + " called with wrong parameters or unknown");
-    }
-
-    distributions.put(signature, ret);
-
     return ret;
   }
 
@@ -461,8 +1078,8 @@ public class RandomGeneratorAdapter {
    */
   @ResourceAdapter.Type
   public Artifact.Type getType(Urn resourceUrn) {
-    return switch (resourceUrn.getResourceId()) {
-      case DATA -> Artifact.Type.NUMBER;
+    return switch (resourceUrn.getNamespace()) {
+      case DATA, FIELDS -> Artifact.Type.NUMBER;
       case EVENTS -> Artifact.Type.EVENT;
       case OBJECTS -> Artifact.Type.OBJECT;
       default ->
@@ -0,0 +1,34 @@
+package org.integratedmodelling.generators.instrumentation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one generator call. Disabled unless a recording enables it, e.g. with
+ * <code>-XX:StartFlightRecording=+org.integratedmodelling.generators.Generation#enabled=true
+ * </code>.
+ *
+ * @author Ferd
+ */
+@Name("org.integratedmodelling.generators.Generation")
+@Label("Generation")
+@Category({"k.LAB", "Generators"})
+@Description("A call to a terrain, noise, shape or random data generator")
+@StackTrace(false)
+class GenerationEvent extends Event {
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Target")
+  @Description("URN or function call being generated")
+  String target;
+
+  @Label("Items")
+  @Description("Cells, values or objects produced")
+  long items;
+}
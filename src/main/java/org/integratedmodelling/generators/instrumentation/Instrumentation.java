@@ -0,0 +1,149 @@
+package org.integratedmodelling.generators.instrumentation;
+
+import org.integratedmodelling.generators.utils.BoundedCache;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and throughput of the generators, kept per operation (<code>terrain</code>, <code>
+ * random.data</code> etc.), plus the statistics of the registered caches. Each call is also
+ * reported as a {@link GenerationEvent} to the flight recorder when that is enabled.
+ *
+ * <p>Counting is off unless enabled with {@link #setEnabled(boolean)} or the system property
+ * <code>klab.generators.instrumentation</code>; when both counting and the flight recorder event
+ * are off, {@link #begin(String, Object)} returns a shared no-op span and nothing is recorded. Spans
+ * should be ended in a <code>finally</code> block, so that failed calls are counted too.
+ *
+ * @author Ferd
+ */
+public final class Instrumentation {
+
+  private static final Span DISABLED = new Span(null, null, null, 0);
+
+  private static volatile boolean enabled = Boolean.getBoolean("klab.generators.instrumentation");
+  private static final Map<String, Counters> operations = new ConcurrentHashMap<>();
+  private static final Map<String, BoundedCache<?, ?>> caches = new ConcurrentHashMap<>();
+
+  private Instrumentation() {}
+
+  private static class Counters {
+    final LongAdder calls = new LongAdder();
+    final LongAdder items = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+  }
+
+  /**
+   * One timed generator call. Not thread-safe: ended by the thread that began it. Only the first
+   * call to {@link #end(long)} counts.
+   */
+  public static final class Span {
+
+    private final String operation;
+    private final Object target;
+    private final GenerationEvent event;
+    private final long start;
+    private boolean ended;
+
+    private Span(String operation, Object target, GenerationEvent event, long start) {
+      this.operation = operation;
+      this.target = target;
+      this.event = event;
+      this.start = start;
+    }
+
+    /**
+     * @param items number of cells, values or objects produced
+     */
+    public void end(long items) {
+      if (this == DISABLED || ended) {
+        return;
+      }
+      ended = true;
+      if (start != 0) {
+        var counters = operations.computeIfAbsent(operation, k -> new Counters());
+        counters.calls.increment();
+        counters.items.add(items);
+        counters.nanos.add(System.nanoTime() - start);
+      }
+      if (event != null && event.shouldCommit()) {
+        event.operation = operation;
+        event.target = target == null ? null : target.toString();
+        event.items = items;
+        event.commit();
+      }
+    }
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  public static void setEnabled(boolean enabled) {
+    Instrumentation.enabled = enabled;
+  }
+
+  /**
+   * Start timing a generator call.
+   *
+   * @param operation the name the call is counted under; keep the set of names small
+   * @param target the URN or function call, only reported to the flight recorder, which turns it
+   *     into a string only when the event is recorded
+   * @return
+   */
+  public static Span begin(String operation, Object target) {
+    var event = new GenerationEvent();
+    if (!event.isEnabled()) {
+      if (!enabled) {
+        return DISABLED;
+      }
+      event = null;
+    } else {
+      event.begin();
+    }
+    return new Span(operation, target, event, enabled ? System.nanoTime() : 0);
+  }
+
+  /**
+   * Report the statistics of a cache under the passed name, replacing any cache previously
+   * registered with it.
+   *
+   * @param name
+   * @param cache
+   */
+  public static void register(String name, BoundedCache<?, ?> cache) {
+    caches.put(name, cache);
+  }
+
+  /**
+   * Current figures as a flat map, sorted by name: for each operation <code>op.calls</code>,
+   * <code>op.items</code> and <code>op.millis</code>; for each cache <code>cache.name.hits</code>,
+   * <code>.misses</code>, <code>.evictions</code> and <code>.size</code>.
+   *
+   * @return
+   */
+  public static Map<String, Number> getMetrics() {
+    Map<String, Number> ret = new TreeMap<>();
+    operations.forEach(
+        (name, counters) -> {
+          ret.put(name + ".calls", counters.calls.sum());
+          ret.put(name + ".items", counters.items.sum());
+          ret.put(name + ".millis", counters.nanos.sum() / 1_000_000.0);
+        });
+    caches.forEach(
+        (name, cache) -> {
+          ret.put("cache." + name + ".hits", cache.getHits());
+          ret.put("cache." + name + ".misses", cache.getMisses());
+          ret.put("cache." + name + ".evictions", cache.getEvictions());
+          ret.put("cache." + name + ".size", cache.size());
+        });
+    return ret;
+  }
+
+  /** Clear the operation counters. Cache statistics belong to the caches and are kept. */
+  public static void reset() {
+    operations.clear();
+  }
+}
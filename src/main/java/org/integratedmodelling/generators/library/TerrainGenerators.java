@@ -1,9 +1,18 @@
 package org.integratedmodelling.generators.library;
 
+import org.integratedmodelling.generators.instrumentation.Instrumentation;
+import org.integratedmodelling.generators.terrain.Derivatives;
+import org.integratedmodelling.generators.terrain.FractalNoise;
 import org.integratedmodelling.generators.terrain.Terrain;
+import org.integratedmodelling.generators.terrain.TerrainCache;
+import org.integratedmodelling.generators.terrain.TerrainPyramid;
+import org.integratedmodelling.generators.terrain.TiledTerrain;
+import org.integratedmodelling.generators.utils.BoundedCache;
+import org.integratedmodelling.generators.utils.Seeds;
 import org.integratedmodelling.klab.api.data.Data;
 import org.integratedmodelling.klab.api.data.Storage;
 import org.integratedmodelling.klab.api.data.mediation.NumericRange;
+import org.integratedmodelling.klab.api.exceptions.KlabIllegalArgumentException;
 import org.integratedmodelling.klab.api.knowledge.Artifact.Type;
 import org.integratedmodelling.klab.api.knowledge.observation.scale.Scale;
 import org.integratedmodelling.klab.api.lang.ServiceCall;
@@ -15,16 +24,27 @@ import org.integratedmodelling.klab.api.services.runtime.extension.Library;
     description =
         """
                         Contextualizers that generate realistic-looking geographic terrains and features for stress-testing.
-                        Use only on small S2 geometries.""")
+                        Use only on S2 geometries; large grids require tiled generation.""")
 public class TerrainGenerators {
 
+  /** Maximum number of terrain pyramids kept for reuse across calls. */
+  private static final int PYRAMID_CACHE_SIZE = 4;
+
+  private static final BoundedCache<String, TerrainPyramid> pyramids =
+      new BoundedCache<>(PYRAMID_CACHE_SIZE);
+
+  static {
+    Instrumentation.register("terrain.pyramids", pyramids);
+  }
+
   @KlabFunction(
       name = "terrain",
       description =
           """
                             Generate fractal surfaces within a user-defined range \
                             and with a configurable degree of smoothness, apt to simulating several terrain patterns such as \
-                            elevation or slope. As the generator works in RAM, this cannot be used on very large grids.""",
+                            elevation or slope. By default the generator works in RAM, so very large grids should set \
+                            the tile parameter to generate the surface tile by tile.""",
       geometry = "S2", // filter for grids and extract the S2 geometry from the scale before calling
       type = Type.NUMBER,
       split = 1,
@@ -40,7 +60,8 @@ public class TerrainGenerators {
             type = Type.NUMBER,
             description =
                 "Controls the amount of detail in the generated structure. Default is 8, "
-                    + "appropriate for geographical elevation",
+                    + "appropriate for geographical elevation. Pass 0 to use the smallest detail "
+                    + "that covers the grid resolution",
             optional = true),
         @KlabFunction.Argument(
             name = "roughness",
@@ -49,6 +70,61 @@ public class TerrainGenerators {
                 "Controls the roughness of the generated terrain. Default is 0.55, "
                     + "appropriate"
                     + " for geographical elevation",
+            optional = true),
+        @KlabFunction.Argument(
+            name = "tile",
+            type = Type.NUMBER,
+            description =
+                "If passed, generate the terrain in tiles of (2^tile + 1)^2 points each, keeping "
+                    + "only one column of tiles in memory. Seams between tiles match exactly.",
+            optional = true),
+        @KlabFunction.Argument(
+            name = "seed",
+            type = Type.NUMBER,
+            description =
+                "Random seed. The same seed and parameters always produce the same terrain. "
+                    + "Default is a random seed.",
+            optional = true),
+        @KlabFunction.Argument(
+            name = "backend",
+            type = Type.TEXT,
+            description =
+                "Storage for the generated surface: double (default), float to halve memory, or "
+                    + "offheap to keep it outside the Java heap. Not available in tiled mode.",
+            optional = true),
+        @KlabFunction.Argument(
+            name = "resampling",
+            type = Type.TEXT,
+            description =
+                "How the surface is resampled to the grid: nearest (default), bilinear or "
+                    + "bicubic. Not available in tiled mode.",
+            optional = true),
+        @KlabFunction.Argument(
+            name = "pyramid",
+            type = Type.NUMBER,
+            description =
+                "If passed along with a seed, build the terrain once at this level of detail and "
+                    + "answer every grid with the same seed and roughness from a downsampled "
+                    + "level matching its resolution, or from the level set by detail if passed. "
+                    + "Grids at different resolutions then see the same surface. Not available in "
+                    + "tiled mode.",
+            optional = true),
+        @KlabFunction.Argument(
+            name = "derivative",
+            type = Type.TEXT,
+            description =
+                "Produce a derivative of the terrain instead of the elevation, computed in the "
+                    + "same pass: slope (degrees), aspect (degrees clockwise from north) or "
+                    + "curvature (positive where convex). Default is elevation. Not available in "
+                    + "tiled mode.",
+            optional = true),
+        @KlabFunction.Argument(
+            name = "cellsize",
+            type = Type.NUMBER,
+            description =
+                "Cell size in the units of the range, used for derivatives. Default is the cell "
+                    + "size in the units of the spatial extent, which should be overridden when "
+                    + "these are not the units of the range (e.g. degrees).",
             optional = true)
       })
   public void generateTerrain(
@@ -58,20 +134,192 @@ public class TerrainGenerators {
     var xy = scale.getSpace().getShape();
     var xx = xy.get(0);
     var yy = xy.get(1);
-    var terrain =
-        new Terrain(
-            call.getParameters().get("detail", 8),
-            call.getParameters().get("roughness", 0.55),
-            range.getLowerBound(),
-            range.getUpperBound());
-
-    double dx = 1.0 / (double) xx;
-    double dy = 1.0 / (double) yy;
-
-    for (int x = 0; x < xx; x++) {
-      for (int y = 0; y < yy; y++) {
-        output.add(terrain.getAltitude(x * dx, y * dy));
+    int detail = call.getParameters().get("detail", 8);
+    double roughness = call.getParameters().get("roughness", 0.55);
+    long seed = call.getParameters().get("seed", Seeds.random());
+    int tile = call.getParameters().get("tile", 0);
+    if (detail <= 0) {
+      detail = Terrain.getLevelOfDetail(Math.max(xx, yy));
+    }
+    if (tile > 0) {
+      // tiles are streamed as raw elevation and never held as a surface
+      for (String option : new String[] {"backend", "resampling", "pyramid"}) {
+        if (call.getParameters().containsKey(option)) {
+          throw new KlabIllegalArgumentException(
+              "terrain: " + option + " is not available with tile");
+        }
       }
+      if (!"elevation".equalsIgnoreCase(call.getParameters().get("derivative", "elevation"))) {
+        throw new KlabIllegalArgumentException("terrain: derivatives are not available with tile");
+      }
+    }
+
+    var span = Instrumentation.begin(tile > 0 ? "terrain.tiled" : "terrain", call);
+    long items = 0;
+    try {
+      if (tile > 0) {
+        new TiledTerrain(
+                detail, tile, roughness, range.getLowerBound(), range.getUpperBound(), seed)
+            .scan(xx.intValue(), yy.intValue(), output::add);
+        items = (long) xx * yy;
+        return;
+      }
+
+      var backend = getOption(Terrain.Backend.class, call.getParameters().get("backend", "double"));
+      // only terrains with an explicit seed can be asked for again
+      var cache = call.getParameters().containsKey("seed") ? TerrainCache.getDefault() : null;
+      int pyramid = call.getParameters().get("pyramid", 0);
+      Terrain terrain;
+      if (pyramid > 0) {
+        if (!call.getParameters().containsKey("seed")) {
+          throw new KlabIllegalArgumentException("terrain: a pyramid requires an explicit seed");
+        }
+        var levels =
+            pyramids.get(
+                pyramid + "-" + roughness + "-" + seed + "-" + backend,
+                k ->
+                    new TerrainPyramid(
+                        cache == null
+                            ? new Terrain(pyramid, roughness, 0, 1, seed, backend)
+                            : cache.get(pyramid, roughness, 0, 1, seed, backend),
+                        backend));
+        terrain =
+            call.getParameters().containsKey("detail") && detail > 0
+                ? levels.getTerrain(detail, range.getLowerBound(), range.getUpperBound())
+                : levels.getTerrainForGrid(
+                    Math.max(xx, yy), range.getLowerBound(), range.getUpperBound());
+      } else if (cache != null) {
+        terrain =
+            cache.get(
+                detail, roughness, range.getLowerBound(), range.getUpperBound(), seed, backend);
+      } else {
+        terrain =
+            new Terrain(
+                detail, roughness, range.getLowerBound(), range.getUpperBound(), seed, backend);
+      }
+      var resampling =
+          getOption(
+              Terrain.Interpolation.class, call.getParameters().get("resampling", "nearest"));
+
+      double dx = 1.0 / (double) xx;
+      double dy = 1.0 / (double) yy;
+
+      String derivative = call.getParameters().get("derivative", "elevation");
+      if (!"elevation".equalsIgnoreCase(derivative)) {
+        var envelope = scale.getSpace().getEnvelope();
+        double cellWidth = (envelope.getMaxX() - envelope.getMinX()) / xx;
+        double cellHeight = (envelope.getMaxY() - envelope.getMinY()) / yy;
+        if (call.getParameters().containsKey("cellsize")) {
+          cellWidth = cellHeight = call.getParameters().get("cellsize", 1.0);
+        }
+        Derivatives.scan(
+            (x, y) -> terrain.getAltitude(x * dx, y * dy, resampling),
+            xx.intValue(),
+            yy.intValue(),
+            cellWidth,
+            cellHeight,
+            getOption(Derivatives.Derivative.class, derivative),
+            output::add);
+        items = (long) xx * yy;
+        return;
+      }
+
+      for (int x = 0; x < xx; x++) {
+        for (int y = 0; y < yy; y++) {
+          output.add(terrain.getAltitude(x * dx, y * dy, resampling));
+        }
+      }
+      items = (long) xx * yy;
+    } finally {
+      span.end(items);
+    }
+  }
+
+  @KlabFunction(
+      name = "noise",
+      description =
+          """
+                            Generate fractal noise surfaces within a user-defined range and with a configurable \
+                            degree of smoothness. Each cell is computed independently from its coordinates, so the \
+                            generator uses no memory for the surface and can be used on grids of any size.""",
+      geometry = "S2",
+      type = Type.NUMBER,
+      fillCurve = Data.FillCurve.D2_XY,
+      parameters = {
+        @KlabFunction.Argument(
+            name = "range",
+            type = Type.RANGE,
+            description = "The min-max range of the values produced. Default is 0 to 4000",
+            optional = true),
+        @KlabFunction.Argument(
+            name = "detail",
+            type = Type.NUMBER,
+            description = "Number of octaves of noise. Default is 8",
+            optional = true),
+        @KlabFunction.Argument(
+            name = "roughness",
+            type = Type.NUMBER,
+            description =
+                "Amplitude ratio between successive octaves. Default is 0.55, appropriate for "
+                    + "geographical elevation",
+            optional = true),
+        @KlabFunction.Argument(
+            name = "wavelength",
+            type = Type.NUMBER,
+            description =
+                "Size of the largest features in the units of the spatial extent. Default is the "
+                    + "longest side of the extent; set it explicitly to obtain the same values "
+                    + "for the same locations across different extents",
+            optional = true),
+        @KlabFunction.Argument(
+            name = "seed",
+            type = Type.NUMBER,
+            description = "Random seed. Default is a random seed.",
+            optional = true)
+      })
+  public void generateNoise(
+      @KlabFunction.Output Storage.DoubleScanner output, Scale scale, ServiceCall call) {
+
+    var span = Instrumentation.begin("noise", call);
+    long items = 0;
+    try {
+      var range = call.getParameters().get("range", NumericRange.create(0., 4000., false, false));
+      var xy = scale.getSpace().getShape();
+      var xx = xy.get(0);
+      var yy = xy.get(1);
+      var envelope = scale.getSpace().getEnvelope();
+      double width = envelope.getMaxX() - envelope.getMinX();
+      double height = envelope.getMaxY() - envelope.getMinY();
+      double wavelength = call.getParameters().get("wavelength", Math.max(width, height));
+      var noise =
+          new FractalNoise(
+              call.getParameters().get("detail", 8),
+              call.getParameters().get("roughness", 0.55),
+              range.getLowerBound(),
+              range.getUpperBound(),
+              call.getParameters().get("seed", Seeds.random()));
+
+      double dx = width / (double) xx;
+      double dy = height / (double) yy;
+
+      for (int x = 0; x < xx; x++) {
+        double px = (envelope.getMinX() + (x + 0.5) * dx) / wavelength;
+        for (int y = 0; y < yy; y++) {
+          output.add(noise.getValue(px, (envelope.getMinY() + (y + 0.5) * dy) / wavelength));
+        }
+      }
+      items = (long) xx * yy;
+    } finally {
+      span.end(items);
+    }
+  }
+
+  private static <E extends Enum<E>> E getOption(Class<E> optionClass, String value) {
+    try {
+      return Enum.valueOf(optionClass, value.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new KlabIllegalArgumentException(
+          "terrain: unknown " + optionClass.getSimpleName().toLowerCase() + " " + value);
     }
   }
 }
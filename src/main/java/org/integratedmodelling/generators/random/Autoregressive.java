@@ -0,0 +1,130 @@
+package org.integratedmodelling.generators.random;
+
+import org.integratedmodelling.generators.utils.Seeds;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Independent stationary AR(1) processes, one per cell, with standard normal marginals. Only the
+ * current value of each cell is kept, as a float, and each step updates it in place:
+ *
+ * <pre>
+ * z(t) = phi * z(t - 1) + sqrt(1 - phi^2) * e(t)
+ * </pre>
+ *
+ * An Ornstein-Uhlenbeck process with relaxation time tau observed at steps dt is the same update
+ * with phi = exp(-dt / tau). Other marginals are obtained by passing the values through the normal
+ * CDF and the inverse CDF of the distribution wanted.
+ *
+ * <p>Cells are updated in parallel in chunks of fixed size, each drawing the innovations from a
+ * stream derived from the seed, the step and the chunk index, so the values for a seed do not
+ * depend on the number of cores. Not thread safe; callers own each instance.
+ *
+ * @author Ferd
+ */
+public class Autoregressive {
+
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  private final float[] state;
+  private final long seed;
+  private long step = -1;
+
+  /**
+   * @param size number of cells
+   * @param seed
+   */
+  public Autoregressive(int size, long seed) {
+    this.state = new float[size];
+    this.seed = seed;
+  }
+
+  public int size() {
+    return state.length;
+  }
+
+  /**
+   * @return the index of the last step taken since the start, or -1 before the first
+   */
+  public long getStep() {
+    return step;
+  }
+
+  /** Start again from a fresh draw at the next step. */
+  public void restart() {
+    step = -1;
+  }
+
+  /**
+   * Take one step. The first step after construction or {@link #restart()} draws the values from
+   * the stationary distribution and ignores phi.
+   *
+   * @param phi lag-one autocorrelation, between -1 and 1
+   */
+  public void advance(double phi) {
+    if (phi < -1 || phi > 1) {
+      throw new IllegalArgumentException("autocorrelation must be between -1 and 1: " + phi);
+    }
+    long current = ++step;
+    double innovation = Math.sqrt(1 - phi * phi);
+    int chunks = chunks(state.length);
+    IntStream.range(0, chunks)
+        .parallel()
+        .forEach(
+            k -> {
+              var random = new RandomStream(Seeds.derive(seed, current, k));
+              int end = end(k, state.length);
+              if (current == 0) {
+                for (int i = k * CHUNK_SIZE; i < end; i++) {
+                  state[i] = (float) Ziggurat.normal(random);
+                }
+              } else {
+                for (int i = k * CHUNK_SIZE; i < end; i++) {
+                  state[i] = (float) (phi * state[i] + innovation * Ziggurat.normal(random));
+                }
+              }
+            });
+  }
+
+  /**
+   * Pass the current values through the transform to the consumer, in cell order. Values are
+   * transformed in parallel in waves of one chunk per core.
+   *
+   * @param transform from standard normal values to output values
+   * @param output
+   */
+  public void scan(DoubleUnaryOperator transform, DoubleConsumer output) {
+    int wave = ForkJoinPool.getCommonPoolParallelism();
+    double[] buffer = new double[(int) Math.min(state.length, (long) CHUNK_SIZE * wave)];
+    // advanced by the length of each wave, which cannot go past the number of cells
+    for (int start = 0, length; start < state.length; start += length) {
+      int first = start;
+      length = Math.min(buffer.length, state.length - start);
+      int cells = length;
+      IntStream.range(0, chunks(cells))
+          .parallel()
+          .forEach(
+              k -> {
+                int end = end(k, cells);
+                for (int i = k * CHUNK_SIZE; i < end; i++) {
+                  buffer[i] = transform.applyAsDouble(state[first + i]);
+                }
+              });
+      for (int i = 0; i < length; i++) {
+        output.accept(buffer[i]);
+      }
+    }
+  }
+
+  private static int chunks(int cells) {
+    return (int) ((cells + (long) CHUNK_SIZE - 1) / CHUNK_SIZE);
+  }
+
+  /** End of chunk k, computed in long so that chunks near the largest array size do not wrap. */
+  private static int end(int k, int cells) {
+    return (int) Math.min((long) (k + 1) * CHUNK_SIZE, cells);
+  }
+}
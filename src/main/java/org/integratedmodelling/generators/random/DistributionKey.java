@@ -0,0 +1,38 @@
+package org.integratedmodelling.generators.random;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsed identity of a distribution: its name and numeric parameters, used as the key for cached
+ * distributions.
+ *
+ * @param id the distribution name, e.g. <code>gaussian</code>
+ * @param parameters the numeric parameters in order of appearance
+ * @author Ferd
+ */
+public record DistributionKey(String id, List<Double> parameters) {
+
+  public DistributionKey {
+    parameters = List.copyOf(parameters);
+  }
+
+  /**
+   * Parse the tokens of a function call such as <code>gaussian(0, 1)</code>, as returned by <code>
+   * Utils.Strings.parseAsFunctionCall</code>.
+   *
+   * @param tokens the name followed by the parameters
+   * @return the key, or null if any parameter is not a number
+   */
+  public static DistributionKey of(String[] tokens) {
+    List<Double> params = new ArrayList<>();
+    for (int i = 1; i < tokens.length; i++) {
+      try {
+        params.add(Double.parseDouble(tokens[i]));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return new DistributionKey(tokens[0], params);
+  }
+}
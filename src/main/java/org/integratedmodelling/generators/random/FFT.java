@@ -0,0 +1,77 @@
+package org.integratedmodelling.generators.random;
+
+/**
+ * In-place iterative radix-2 complex FFT of a fixed power-of-two size, with precomputed twiddles
+ * and bit reversal. Transforms are unscaled in both directions. Instances can be shared between
+ * threads.
+ *
+ * @author Ferd
+ */
+final class FFT {
+
+  private final int n;
+  private final int[] reversed;
+  private final double[] cos, sin;
+
+  FFT(int n) {
+    if (n < 1 || Integer.bitCount(n) != 1) {
+      throw new IllegalArgumentException("FFT size must be a power of two: " + n);
+    }
+    this.n = n;
+    this.reversed = new int[n];
+    int bits = Integer.numberOfTrailingZeros(n);
+    for (int i = 0; i < n; i++) {
+      reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (Integer.SIZE - bits);
+    }
+    this.cos = new double[n / 2];
+    this.sin = new double[n / 2];
+    for (int i = 0; i < n / 2; i++) {
+      cos[i] = Math.cos(2 * Math.PI * i / n);
+      sin[i] = Math.sin(2 * Math.PI * i / n);
+    }
+  }
+
+  int size() {
+    return n;
+  }
+
+  /**
+   * Transform n values starting at offset and spaced by stride.
+   *
+   * @param re
+   * @param im
+   * @param offset
+   * @param stride
+   * @param inverse
+   */
+  void transform(double[] re, double[] im, int offset, int stride, boolean inverse) {
+    for (int i = 0; i < n; i++) {
+      int j = reversed[i];
+      if (j > i) {
+        int a = offset + i * stride, b = offset + j * stride;
+        double t = re[a];
+        re[a] = re[b];
+        re[b] = t;
+        t = im[a];
+        im[a] = im[b];
+        im[b] = t;
+      }
+    }
+    double sign = inverse ? 1 : -1;
+    for (int size = 2; size <= n; size <<= 1) {
+      int half = size >> 1, step = n / size;
+      for (int start = 0; start < n; start += size) {
+        for (int k = 0; k < half; k++) {
+          double wr = cos[k * step], wi = sign * sin[k * step];
+          int a = offset + (start + k) * stride, b = a + half * stride;
+          double xr = re[b] * wr - im[b] * wi;
+          double xi = re[b] * wi + im[b] * wr;
+          re[b] = re[a] - xr;
+          im[b] = im[a] - xi;
+          re[a] += xr;
+          im[a] += xi;
+        }
+      }
+    }
+  }
+}
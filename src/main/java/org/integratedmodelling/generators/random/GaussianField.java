@@ -0,0 +1,196 @@
+package org.integratedmodelling.generators.random;
+
+import org.integratedmodelling.generators.utils.Seeds;
+
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Stationary Gaussian random field with a chosen covariance model, built by spectral synthesis:
+ * white noise is transformed with an FFT, filtered with the square root of the spectral density of
+ * the covariance and transformed back, in O(n log n).
+ *
+ * <p>The grid is produced in tiles by overlap-save convolution. Each tile filters the noise over
+ * itself plus a halo of {@link #HALO} correlation lengths on each side and keeps its center, and
+ * the noise of each cell is derived from the seed and the cell position. Tiles therefore match
+ * their neighbours, any tile can be computed alone, and the values for a seed do not depend on the
+ * number of cores. Tiles in a column are computed in parallel and only one column of tiles is kept
+ * in memory. Correlation lengths longer than the grid are truncated to it.
+ *
+ * @author Ferd
+ */
+public class GaussianField {
+
+  /** Halo around each tile, in correlation lengths. */
+  private static final double HALO = 4;
+
+  /** Smallest FFT size used for a tile when the grid needs more than one. */
+  private static final int MIN_TILE = 256;
+
+  /** Largest number of cells in a tile, so that its arrays can be allocated. */
+  private static final long MAX_TILE_CELLS = Integer.MAX_VALUE - 8;
+
+  public enum Covariance {
+    /** exp(-r / length) */
+    EXPONENTIAL,
+    /** exp(-(r / length)^2) */
+    GAUSSIAN,
+    /** Matérn with smoothness nu; nu = 0.5 is the exponential. */
+    MATERN
+  }
+
+  private final Covariance covariance;
+  private final double length;
+  private final double nu;
+  private final double mean;
+  private final double std;
+  private final long seed;
+
+  /**
+   * @param covariance the covariance model
+   * @param length correlation length, in the units of the cell size passed to {@link #scan}
+   * @param nu smoothness of the Matérn covariance; ignored by the others
+   * @param mean
+   * @param std
+   * @param seed
+   */
+  public GaussianField(
+      Covariance covariance, double length, double nu, double mean, double std, long seed) {
+    if (length <= 0 || (covariance == Covariance.MATERN && nu <= 0)) {
+      throw new IllegalArgumentException(
+          "random field: correlation length and smoothness must be positive");
+    }
+    this.covariance = covariance;
+    this.length = length;
+    this.nu = nu;
+    this.mean = mean;
+    this.std = std;
+    this.seed = seed;
+  }
+
+  /**
+   * Produce the field over a grid, sending values to the consumer in x-major, y-minor order.
+   *
+   * @param nx
+   * @param ny
+   * @param dx cell width
+   * @param dy cell height
+   * @param output
+   * @throws IllegalArgumentException if the correlation length needs tiles too large to allocate
+   */
+  public void scan(int nx, int ny, double dx, double dy, DoubleConsumer output) {
+
+    int hx = halo(dx, nx), hy = halo(dy, ny);
+    long sx = tileSize(nx, hx), sy = tileSize(ny, hy);
+    // each side first, so that the product cannot overflow
+    if (sx > MAX_TILE_CELLS || sy > MAX_TILE_CELLS || sx * sy > MAX_TILE_CELLS) {
+      throw new IllegalArgumentException(
+          "random field: correlation length "
+              + length
+              + " needs tiles of "
+              + sx
+              + " x "
+              + sy
+              + " cells, more than "
+              + MAX_TILE_CELLS);
+    }
+    int mx = (int) sx, my = (int) sy;
+    int tx = mx - 2 * hx, ty = my - 2 * hy;
+    var fftx = new FFT(mx);
+    var ffty = mx == my ? fftx : new FFT(my);
+    double[] filter = filter(mx, my, dx, dy);
+
+    int rows = (ny + ty - 1) / ty;
+    double[][] band = new double[rows][];
+    for (int x0 = 0; x0 < nx; x0 += tx) {
+      int bx = x0;
+      IntStream.range(0, rows)
+          .parallel()
+          .forEach(r -> band[r] = tile(bx - hx, r * ty - hy, mx, my, fftx, ffty, filter));
+      for (int x = 0; x < Math.min(tx, nx - x0); x++) {
+        for (int y = 0; y < ny; y++) {
+          output.accept(band[y / ty][(x + hx) * my + (y % ty) + hy]);
+        }
+      }
+    }
+  }
+
+  private int halo(double cell, int cells) {
+    return (int) Math.min(Math.ceil(HALO * length / cell), cells);
+  }
+
+  private static long tileSize(int cells, int halo) {
+    long whole = Long.highestOneBit(Math.max(1, cells + 2L * halo - 1)) << 1;
+    long tiled = Math.max(MIN_TILE, Long.highestOneBit(Math.max(1, 4L * halo - 1)) << 1);
+    return Math.min(whole, tiled);
+  }
+
+  /**
+   * Square root of the spectral density on the FFT frequencies, scaled so that the field has unit
+   * variance after the unscaled inverse transform divided by the number of points.
+   */
+  private double[] filter(int mx, int my, double dx, double dy) {
+    double[] ret = new double[mx * my];
+    double sum = 0;
+    for (int i = 0; i < mx; i++) {
+      double kx = 2 * Math.PI * (i <= mx / 2 ? i : i - mx) / (mx * dx);
+      for (int j = 0; j < my; j++) {
+        double ky = 2 * Math.PI * (j <= my / 2 ? j : j - my) / (my * dy);
+        double k2 = (kx * kx + ky * ky) * length * length;
+        double density =
+            switch (covariance) {
+              case EXPONENTIAL -> Math.pow(1 + k2, -1.5);
+              case GAUSSIAN -> Math.exp(-k2 / 4);
+              case MATERN -> Math.pow(1 + k2 / (2 * nu), -(nu + 1));
+            };
+        ret[i * my + j] = density;
+        sum += density;
+      }
+    }
+    double scale = Math.sqrt((double) mx * my / sum);
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = Math.sqrt(ret[i]) * scale;
+    }
+    return ret;
+  }
+
+  /** Filtered values of the mx x my window with the passed origin, row-major by x. */
+  private double[] tile(int x0, int y0, int mx, int my, FFT fftx, FFT ffty, double[] filter) {
+    double[] re = new double[mx * my];
+    double[] im = new double[mx * my];
+    for (int i = 0; i < mx; i++) {
+      for (int j = 0; j < my; j++) {
+        re[i * my + j] = noise(x0 + i, y0 + j);
+      }
+    }
+    for (int i = 0; i < mx; i++) {
+      ffty.transform(re, im, i * my, 1, false);
+    }
+    for (int j = 0; j < my; j++) {
+      fftx.transform(re, im, j, my, false);
+    }
+    for (int i = 0; i < re.length; i++) {
+      re[i] *= filter[i];
+      im[i] *= filter[i];
+    }
+    for (int j = 0; j < my; j++) {
+      fftx.transform(re, im, j, my, true);
+    }
+    for (int i = 0; i < mx; i++) {
+      ffty.transform(re, im, i * my, 1, true);
+    }
+    double scale = std / ((double) mx * my);
+    for (int i = 0; i < re.length; i++) {
+      re[i] = mean + re[i] * scale;
+    }
+    return re;
+  }
+
+  /** Standard normal value for a cell, by Box-Muller on the two halves of a derived seed. */
+  private double noise(int x, int y) {
+    long bits = Seeds.derive(seed, x, y);
+    double u1 = ((bits >>> 32) + 1) * 0x1.0p-32;
+    double u2 = (bits & 0xffffffffL) * 0x1.0p-32;
+    return Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+  }
+}
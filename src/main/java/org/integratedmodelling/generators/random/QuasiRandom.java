@@ -0,0 +1,263 @@
+package org.integratedmodelling.generators.random;
+
+import org.integratedmodelling.generators.utils.Seeds;
+
+/**
+ * One dimension of a low-discrepancy sequence in (0, 1), in any number of independently randomized
+ * streams, addressed by index so that any point can be produced without generating what comes
+ * before. Points are resolved to 52 bits and centered in their cell, so they never reach 0 or 1 and
+ * can be passed to any inverse CDF. Different dimensions of the same sequence are jointly uniform,
+ * so independent inputs of a Monte Carlo run should each use their own.
+ *
+ * <p>Sobol points use the Joe and Kuo (2008) direction numbers; Halton points use the prime base of
+ * the dimension with random digit permutations (Mascagni and Chi 2004). Each stream adds its own
+ * random digital shift (Sobol) or rotation modulo 1 (Halton), derived from the seed, the dimension
+ * and the stream number. The randomization keeps the stratification of the sequence in every
+ * stream: the first 2^m Sobol points, or b^m Halton points in base b, fall one in each interval of
+ * that length. Streams are meant for the cells of a state, and indices for the runs of an
+ * experiment, so that each cell is sampled evenly over the runs. Immutable and shared between
+ * threads.
+ *
+ * @author Ferd
+ */
+public abstract class QuasiRandom {
+
+  public enum Sequence {
+    SOBOL,
+    HALTON
+  }
+
+  /** Number of dimensions supported. */
+  public static final int DIMENSIONS = 32;
+
+  private static final int BITS = 52;
+  private static final double SCALE = 0x1.0p-52;
+
+  /**
+   * Degree s, polynomial coefficients a and initial numbers m1..ms of Sobol dimensions 2 to 32,
+   * from new-joe-kuo-6.21201.
+   */
+  private static final int[][] DIRECTIONS = {
+    {1, 0, 1},
+    {2, 1, 1, 3},
+    {3, 1, 1, 3, 1},
+    {3, 2, 1, 1, 1},
+    {4, 1, 1, 1, 3, 3},
+    {4, 4, 1, 3, 5, 13},
+    {5, 2, 1, 1, 5, 5, 17},
+    {5, 4, 1, 1, 5, 5, 5},
+    {5, 7, 1, 1, 7, 11, 19},
+    {5, 11, 1, 1, 5, 1, 1},
+    {5, 13, 1, 1, 1, 3, 11},
+    {5, 14, 1, 3, 5, 5, 31},
+    {6, 1, 1, 3, 3, 9, 7, 49},
+    {6, 13, 1, 1, 1, 15, 21, 21},
+    {6, 16, 1, 3, 1, 13, 27, 49},
+    {6, 19, 1, 1, 1, 15, 7, 5},
+    {6, 22, 1, 3, 1, 15, 13, 25},
+    {6, 25, 1, 1, 5, 5, 19, 61},
+    {7, 1, 1, 3, 7, 11, 23, 15, 103},
+    {7, 4, 1, 3, 7, 13, 13, 15, 69},
+    {7, 7, 1, 1, 3, 13, 7, 35, 63},
+    {7, 8, 1, 3, 5, 9, 1, 25, 53},
+    {7, 14, 1, 3, 1, 13, 9, 35, 107},
+    {7, 19, 1, 3, 1, 5, 27, 61, 31},
+    {7, 21, 1, 1, 5, 11, 19, 41, 61},
+    {7, 28, 1, 3, 5, 3, 3, 13, 69},
+    {7, 31, 1, 1, 7, 13, 1, 19, 1},
+    {7, 32, 1, 3, 7, 5, 13, 19, 59},
+    {7, 37, 1, 1, 3, 9, 25, 29, 41},
+    {7, 41, 1, 3, 5, 13, 23, 1, 55},
+    {7, 42, 1, 3, 7, 3, 13, 59, 17}
+  };
+
+  /**
+   * @param sequence
+   * @param dimension from 0 to {@link #DIMENSIONS} - 1
+   * @param seed the seed of the randomization
+   * @return
+   */
+  public static QuasiRandom of(Sequence sequence, int dimension, long seed) {
+    if (dimension < 0 || dimension >= DIMENSIONS) {
+      throw new IllegalArgumentException(
+          "quasi-random dimension must be between 0 and " + (DIMENSIONS - 1) + ": " + dimension);
+    }
+    return switch (sequence) {
+      case SOBOL -> new Sobol(dimension, seed);
+      case HALTON -> new Halton(dimension, seed);
+    };
+  }
+
+  /**
+   * @param index
+   * @param stream
+   * @return the point at the index in the stream
+   */
+  public abstract double get(long index, long stream);
+
+  /**
+   * Fill the block with the point at the index in consecutive streams.
+   *
+   * @param index
+   * @param stream the stream of the first point
+   * @param block
+   * @param offset
+   * @param length
+   */
+  public abstract void fill(long index, long stream, double[] block, int offset, int length);
+
+  /**
+   * Sobol points in Gray code order, so that each point is the previous one with one direction
+   * number flipped. Any power-of-two run of points starting at a multiple of its length is the same
+   * set as in natural order.
+   */
+  private static final class Sobol extends QuasiRandom {
+
+    private final long[] directions = new long[BITS];
+    private final long seed;
+
+    Sobol(int dimension, long seed) {
+      if (dimension == 0) {
+        for (int k = 0; k < BITS; k++) {
+          directions[k] = 1L << (BITS - 1 - k);
+        }
+      } else {
+        int[] row = DIRECTIONS[dimension - 1];
+        int s = row[0], a = row[1];
+        for (int k = 0; k < BITS; k++) {
+          if (k < s) {
+            directions[k] = (long) row[2 + k] << (BITS - 1 - k);
+          } else {
+            long v = directions[k - s] ^ (directions[k - s] >>> s);
+            for (int j = 1; j < s; j++) {
+              if (((a >>> (s - 1 - j)) & 1) != 0) {
+                v ^= directions[k - j];
+              }
+            }
+            directions[k] = v;
+          }
+        }
+      }
+      this.seed = Seeds.derive(seed, dimension);
+    }
+
+    @Override
+    public double get(long index, long stream) {
+      return toDouble(bits(index ^ (index >>> 1)) ^ shift(stream));
+    }
+
+    @Override
+    public void fill(long index, long stream, double[] block, int offset, int length) {
+      long x = bits(index ^ (index >>> 1));
+      for (int i = 0; i < length; i++) {
+        block[offset + i] = toDouble(x ^ shift(stream + i));
+      }
+    }
+
+    private long shift(long stream) {
+      return Seeds.derive(seed, stream) >>> (Long.SIZE - BITS);
+    }
+
+    private long bits(long gray) {
+      long ret = 0;
+      for (int k = 0; gray != 0; k++, gray >>>= 1) {
+        if ((gray & 1) != 0) {
+          ret ^= directions[k];
+        }
+      }
+      return ret;
+    }
+
+    private static double toDouble(long x) {
+      return (x + 0.5) * SCALE;
+    }
+  }
+
+  /**
+   * Radical inverse of the index in the prime base of the dimension, over as many digits as fit in
+   * 52 bits, with an independent random permutation of the digits at each position. Streams rotate
+   * the result by a whole number of cells, so it stays exact.
+   */
+  private static final class Halton extends QuasiRandom {
+
+    private final int base;
+    private final int digits;
+    private final long power;
+    private final int[][] permutations;
+    private final long seed;
+
+    Halton(int dimension, long seed) {
+      this.base = prime(dimension);
+      int n = 0;
+      long power = 1;
+      while (power <= (1L << BITS) / base) {
+        power *= base;
+        n++;
+      }
+      this.digits = n;
+      this.power = power;
+      this.seed = Seeds.derive(seed, dimension);
+      var random = new RandomStream(this.seed);
+      this.permutations = new int[digits][base];
+      for (int[] permutation : permutations) {
+        for (int i = 0; i < base; i++) {
+          permutation[i] = i;
+        }
+        for (int i = base - 1; i > 0; i--) {
+          int j = random.nextInt(i + 1);
+          int t = permutation[i];
+          permutation[i] = permutation[j];
+          permutation[j] = t;
+        }
+      }
+    }
+
+    @Override
+    public double get(long index, long stream) {
+      return toDouble(radicalInverse(index), stream);
+    }
+
+    @Override
+    public void fill(long index, long stream, double[] block, int offset, int length) {
+      long x = radicalInverse(index);
+      for (int i = 0; i < length; i++) {
+        block[offset + i] = toDouble(x, stream + i);
+      }
+    }
+
+    private long radicalInverse(long index) {
+      // the lowest digit of the index ends up the highest of the point
+      long ret = 0;
+      for (int k = 0; k < digits; k++) {
+        ret = ret * base + permutations[k][(int) (index % base)];
+        index /= base;
+      }
+      return ret;
+    }
+
+    private double toDouble(long x, long stream) {
+      // the permutations drew from the stream of the seed itself, so streams use derived seeds
+      long rotation = Long.remainderUnsigned(Seeds.derive(seed, stream + 1), power);
+      long rotated = x + rotation;
+      return ((rotated >= power ? rotated - power : rotated) + 0.5) / power;
+    }
+
+    private static int prime(int n) {
+      int candidate = 1;
+      for (int found = -1; found < n; ) {
+        candidate++;
+        boolean prime = true;
+        for (int d = 2; d * d <= candidate; d++) {
+          if (candidate % d == 0) {
+            prime = false;
+            break;
+          }
+        }
+        if (prime) {
+          found++;
+        }
+      }
+      return candidate;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package org.integratedmodelling.generators.random;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.integratedmodelling.generators.utils.Seeds;
+
+/**
+ * A small, fast SplitMix64 generator usable wherever commons-math wants a {@link RandomGenerator}.
+ * Streams are cheap to create, so independent streams can be derived for each chunk of work (see
+ * {@link Seeds#derive(long, long)}) and the results will not depend on how the chunks are
+ * scheduled. Not thread-safe: each thread or chunk must own its stream.
+ *
+ * @author Ferd
+ */
+public final class RandomStream implements RandomGenerator {
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+  private long state;
+  private double nextGaussian = Double.NaN;
+
+  public RandomStream(long seed) {
+    setSeed(seed);
+  }
+
+  @Override
+  public void setSeed(int seed) {
+    setSeed((long) seed);
+  }
+
+  @Override
+  public void setSeed(int[] seed) {
+    long s = 0;
+    for (int i : seed) {
+      s = Seeds.derive(s, i);
+    }
+    setSeed(s);
+  }
+
+  @Override
+  public void setSeed(long seed) {
+    this.state = Seeds.mix(seed);
+    this.nextGaussian = Double.NaN;
+  }
+
+  @Override
+  public void nextBytes(byte[] bytes) {
+    int i = 0;
+    while (i < bytes.length) {
+      long rnd = nextLong();
+      for (int n = Math.min(bytes.length - i, Long.BYTES); n-- > 0; rnd >>>= Byte.SIZE) {
+        bytes[i++] = (byte) rnd;
+      }
+    }
+  }
+
+  @Override
+  public int nextInt() {
+    return (int) (nextLong() >>> 32);
+  }
+
+  @Override
+  public int nextInt(int n) {
+    if (n <= 0) {
+      throw new IllegalArgumentException("bound must be positive");
+    }
+    // Lemire's multiply-shift with rejection of the biased low range
+    long m = (nextLong() >>> 32) * n;
+    long low = m & 0xffffffffL;
+    if (low < n) {
+      long threshold = (0x100000000L - n) % n;
+      while (low < threshold) {
+        m = (nextLong() >>> 32) * n;
+        low = m & 0xffffffffL;
+      }
+    }
+    return (int) (m >>> 32);
+  }
+
+  @Override
+  public long nextLong() {
+    return Seeds.mix(state += GOLDEN_GAMMA);
+  }
+
+  @Override
+  public boolean nextBoolean() {
+    return nextLong() < 0;
+  }
+
+  @Override
+  public float nextFloat() {
+    return (nextLong() >>> 40) * 0x1.0p-24f;
+  }
+
+  @Override
+  public double nextDouble() {
+    return (nextLong() >>> 11) * DOUBLE_UNIT;
+  }
+
+  @Override
+  public double nextGaussian() {
+    if (!Double.isNaN(nextGaussian)) {
+      double ret = nextGaussian;
+      nextGaussian = Double.NaN;
+      return ret;
+    }
+    // Marsaglia polar method
+    double v1, v2, s;
+    do {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    } while (s >= 1 || s == 0);
+    double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+    nextGaussian = v2 * multiplier;
+    return v1 * multiplier;
+  }
+}
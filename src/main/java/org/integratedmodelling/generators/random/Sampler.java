@@ -0,0 +1,25 @@
+package org.integratedmodelling.generators.random;
+
+/**
+ * A distribution resolved to a typed source of doubles. Implementations fill primitive blocks in a
+ * tight loop, so that the type of distribution is dispatched once per block rather than once per
+ * value.
+ *
+ * @author Ferd
+ */
+public interface Sampler {
+
+  /**
+   * @return the next value
+   */
+  double sample();
+
+  /**
+   * Fill a section of the passed block with consecutive values.
+   *
+   * @param block
+   * @param offset
+   * @param length
+   */
+  void fill(double[] block, int offset, int length);
+}
@@ -0,0 +1,343 @@
+package org.integratedmodelling.generators.random;
+
+import org.apache.commons.math3.distribution.ExponentialDistribution;
+import org.apache.commons.math3.distribution.IntegerDistribution;
+import org.apache.commons.math3.distribution.LogNormalDistribution;
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.distribution.RealDistribution;
+import org.apache.commons.math3.distribution.TriangularDistribution;
+import org.apache.commons.math3.distribution.UniformRealDistribution;
+import org.apache.commons.math3.distribution.WeibullDistribution;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.special.Erf;
+import org.integratedmodelling.klab.api.exceptions.KlabIllegalArgumentException;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Factory for {@link Sampler}s.
+ *
+ * @author Ferd
+ */
+public final class Samplers {
+
+  private Samplers() {}
+
+  /**
+   * Resolve a commons-math distribution to a sampler.
+   *
+   * @param distribution a {@link RealDistribution} or {@link IntegerDistribution}
+   * @return
+   */
+  public static Sampler of(Object distribution) {
+    if (distribution instanceof RealDistribution real) {
+      return new RealSampler(real);
+    } else if (distribution instanceof IntegerDistribution integer) {
+      return new IntegerSampler(integer);
+    }
+    throw new KlabIllegalArgumentException("random: cannot sample from " + distribution);
+  }
+
+  /**
+   * Direct sampler for the continuous families that have one: ziggurat normals and exponentials for
+   * the normal, lognormal, exponential and Weibull distributions, closed-form inverse CDFs for the
+   * uniform and triangular. The distribution is only read for its parameters, so a shared instance
+   * can be passed. Blocks are filled with the base variates first and transformed in a separate
+   * loop over the array.
+   *
+   * @param distribution
+   * @param random the generator the sampler draws from, owned by the caller
+   * @return the sampler, or null if the distribution has no direct method
+   */
+  public static Sampler direct(Object distribution, RandomGenerator random) {
+    if (distribution instanceof NormalDistribution normal) {
+      return new NormalSampler(normal.getMean(), normal.getStandardDeviation(), false, random);
+    } else if (distribution instanceof LogNormalDistribution lognormal) {
+      return new NormalSampler(lognormal.getScale(), lognormal.getShape(), true, random);
+    } else if (distribution instanceof ExponentialDistribution exponential) {
+      return new ExponentialSampler(exponential.getMean(), 1, random);
+    } else if (distribution instanceof WeibullDistribution weibull) {
+      return new ExponentialSampler(weibull.getScale(), 1 / weibull.getShape(), random);
+    } else if (distribution instanceof UniformRealDistribution uniform) {
+      return new UniformSampler(
+          uniform.getSupportLowerBound(), uniform.getSupportUpperBound(), random);
+    } else if (distribution instanceof TriangularDistribution triangular) {
+      return new TriangularSampler(
+          triangular.getSupportLowerBound(),
+          triangular.getMode(),
+          triangular.getSupportUpperBound(),
+          random);
+    }
+    return null;
+  }
+
+  /**
+   * Sampler transforming the same point of a quasi-random sequence in consecutive streams with the
+   * inverse CDF of the distribution, or with the table when there is one.
+   *
+   * @param distribution a {@link RealDistribution} or {@link IntegerDistribution}, only used for
+   *     its inverse CDF
+   * @param table the table of a discrete distribution, or null
+   * @param sequence
+   * @param index index of the point used
+   * @param stream stream of the first value
+   * @return
+   */
+  public static Sampler inverse(
+      Object distribution, DiscreteTable table, QuasiRandom sequence, long index, long stream) {
+    return new InverseSampler(quantile(distribution, table), sequence, index, stream);
+  }
+
+  /**
+   * The inverse CDF of a distribution, through the table when there is one.
+   *
+   * @param distribution a {@link RealDistribution} or {@link IntegerDistribution}
+   * @param table the table of a discrete distribution, or null
+   * @return a function from (0, 1) to the values of the distribution
+   */
+  public static DoubleUnaryOperator quantile(Object distribution, DiscreteTable table) {
+    if (table != null) {
+      return table::inverse;
+    } else if (distribution instanceof RealDistribution real) {
+      return real::inverseCumulativeProbability;
+    } else if (distribution instanceof IntegerDistribution integer) {
+      return integer::inverseCumulativeProbability;
+    }
+    throw new KlabIllegalArgumentException("random: cannot sample from " + distribution);
+  }
+
+  /**
+   * Transform from standard normal values to values with the marginal distribution passed, through
+   * the normal CDF and the inverse CDF of the distribution. Normal distributions are scaled
+   * directly.
+   *
+   * @param distribution a {@link RealDistribution} or {@link IntegerDistribution}
+   * @param table the table of a discrete distribution, or null
+   * @return the transform from standard normal values to values of the distribution
+   */
+  public static DoubleUnaryOperator fromNormal(Object distribution, DiscreteTable table) {
+    if (distribution instanceof NormalDistribution normal) {
+      double mean = normal.getMean(), std = normal.getStandardDeviation();
+      return z -> mean + std * z;
+    }
+    var quantile = quantile(distribution, table);
+    return z -> {
+      double u = 0.5 * Erf.erfc(-z / Math.sqrt(2));
+      return quantile.applyAsDouble(Math.max(Double.MIN_NORMAL, Math.min(u, 1 - 0x1.0p-53)));
+    };
+  }
+
+  static final class RealSampler implements Sampler {
+
+    private final RealDistribution distribution;
+
+    RealSampler(RealDistribution distribution) {
+      this.distribution = distribution;
+    }
+
+    @Override
+    public double sample() {
+      return distribution.sample();
+    }
+
+    @Override
+    public void fill(double[] block, int offset, int length) {
+      for (int i = offset, end = offset + length; i < end; i++) {
+        block[i] = distribution.sample();
+      }
+    }
+  }
+
+  static final class IntegerSampler implements Sampler {
+
+    private final IntegerDistribution distribution;
+
+    IntegerSampler(IntegerDistribution distribution) {
+      this.distribution = distribution;
+    }
+
+    @Override
+    public double sample() {
+      return distribution.sample();
+    }
+
+    @Override
+    public void fill(double[] block, int offset, int length) {
+      for (int i = offset, end = offset + length; i < end; i++) {
+        block[i] = distribution.sample();
+      }
+    }
+  }
+
+  /** mean + std * Z, or its exponential for the lognormal. */
+  static final class NormalSampler implements Sampler {
+
+    private final double mean;
+    private final double std;
+    private final boolean log;
+    private final RandomGenerator random;
+
+    NormalSampler(double mean, double std, boolean log, RandomGenerator random) {
+      this.mean = mean;
+      this.std = std;
+      this.log = log;
+      this.random = random;
+    }
+
+    @Override
+    public double sample() {
+      double ret = mean + std * Ziggurat.normal(random);
+      return log ? Math.exp(ret) : ret;
+    }
+
+    @Override
+    public void fill(double[] block, int offset, int length) {
+      int end = offset + length;
+      for (int i = offset; i < end; i++) {
+        block[i] = Ziggurat.normal(random);
+      }
+      for (int i = offset; i < end; i++) {
+        block[i] = mean + std * block[i];
+      }
+      if (log) {
+        for (int i = offset; i < end; i++) {
+          block[i] = Math.exp(block[i]);
+        }
+      }
+    }
+  }
+
+  /** scale * E^power: the exponential with power 1, the Weibull with power 1 / shape. */
+  static final class ExponentialSampler implements Sampler {
+
+    private final double scale;
+    private final double power;
+    private final RandomGenerator random;
+
+    ExponentialSampler(double scale, double power, RandomGenerator random) {
+      this.scale = scale;
+      this.power = power;
+      this.random = random;
+    }
+
+    @Override
+    public double sample() {
+      double e = Ziggurat.exponential(random);
+      return scale * (power == 1 ? e : Math.pow(e, power));
+    }
+
+    @Override
+    public void fill(double[] block, int offset, int length) {
+      int end = offset + length;
+      for (int i = offset; i < end; i++) {
+        block[i] = Ziggurat.exponential(random);
+      }
+      if (power != 1) {
+        for (int i = offset; i < end; i++) {
+          block[i] = Math.pow(block[i], power);
+        }
+      }
+      for (int i = offset; i < end; i++) {
+        block[i] *= scale;
+      }
+    }
+  }
+
+  static final class UniformSampler implements Sampler {
+
+    private final double lower;
+    private final double width;
+    private final RandomGenerator random;
+
+    UniformSampler(double lower, double upper, RandomGenerator random) {
+      this.lower = lower;
+      this.width = upper - lower;
+      this.random = random;
+    }
+
+    @Override
+    public double sample() {
+      return lower + width * random.nextDouble();
+    }
+
+    @Override
+    public void fill(double[] block, int offset, int length) {
+      int end = offset + length;
+      for (int i = offset; i < end; i++) {
+        block[i] = random.nextDouble();
+      }
+      for (int i = offset; i < end; i++) {
+        block[i] = lower + width * block[i];
+      }
+    }
+  }
+
+  /** Closed-form inverse CDF of the triangular distribution. */
+  static final class TriangularSampler implements Sampler {
+
+    private final double lower;
+    private final double upper;
+    private final double split;
+    private final double left;
+    private final double right;
+    private final RandomGenerator random;
+
+    TriangularSampler(double lower, double mode, double upper, RandomGenerator random) {
+      this.lower = lower;
+      this.upper = upper;
+      this.split = (mode - lower) / (upper - lower);
+      this.left = (upper - lower) * (mode - lower);
+      this.right = (upper - lower) * (upper - mode);
+      this.random = random;
+    }
+
+    @Override
+    public double sample() {
+      return inverse(random.nextDouble());
+    }
+
+    @Override
+    public void fill(double[] block, int offset, int length) {
+      int end = offset + length;
+      for (int i = offset; i < end; i++) {
+        block[i] = random.nextDouble();
+      }
+      for (int i = offset; i < end; i++) {
+        block[i] = inverse(block[i]);
+      }
+    }
+
+    private double inverse(double u) {
+      return u < split ? lower + Math.sqrt(u * left) : upper - Math.sqrt((1 - u) * right);
+    }
+  }
+
+  static final class InverseSampler implements Sampler {
+
+    private final DoubleUnaryOperator quantile;
+    private final QuasiRandom sequence;
+    private final long index;
+    private long stream;
+
+    InverseSampler(DoubleUnaryOperator quantile, QuasiRandom sequence, long index, long stream) {
+      this.quantile = quantile;
+      this.sequence = sequence;
+      this.index = index;
+      this.stream = stream;
+    }
+
+    @Override
+    public double sample() {
+      return quantile.applyAsDouble(sequence.get(index, stream++));
+    }
+
+    @Override
+    public void fill(double[] block, int offset, int length) {
+      sequence.fill(index, stream, block, offset, length);
+      stream += length;
+      for (int i = offset, end = offset + length; i < end; i++) {
+        block[i] = quantile.applyAsDouble(block[i]);
+      }
+    }
+  }
+}
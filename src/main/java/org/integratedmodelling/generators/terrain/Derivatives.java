@@ -0,0 +1,151 @@
+package org.integratedmodelling.generators.terrain;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Slope, aspect and curvature of a surface computed while it is sampled on the grid, with a 3x3
+ * window rolling along each column so that every elevation is computed once and no intermediate
+ * raster is stored. The grid is split into bands of columns that are computed in parallel, each
+ * band evaluating one extra column on either side; bands are emitted in order.
+ *
+ * <p>Grid x runs east and y runs north. Derivatives use Horn's finite differences (slope and
+ * aspect) and the Zevenbergen-Thorne second derivatives (curvature), with the border cells
+ * replicated outside the grid.
+ *
+ * @author Ferd
+ */
+public final class Derivatives {
+
+  /** Number of columns computed by one task. */
+  private static final int BAND = 64;
+
+  public enum Derivative {
+    /** Steepest slope in degrees. */
+    SLOPE,
+    /** Direction of the steepest descent in degrees clockwise from north; NaN where flat. */
+    ASPECT,
+    /**
+     * Curvature of the surface, positive where convex, in hundredths of a unit of elevation per
+     * square unit of distance.
+     */
+    CURVATURE
+  }
+
+  /** Random-access elevation on the grid. */
+  @FunctionalInterface
+  public interface Grid {
+    double get(int x, int y);
+  }
+
+  private Derivatives() {}
+
+  /**
+   * Send the derivative of each cell to the output in x-major, y-minor order.
+   *
+   * @param elevation
+   * @param xx number of columns
+   * @param yy number of rows
+   * @param dx cell width, in the same units as the elevation
+   * @param dy cell height, in the same units as the elevation
+   * @param derivative
+   * @param output
+   */
+  public static void scan(
+      Grid elevation,
+      int xx,
+      int yy,
+      double dx,
+      double dy,
+      Derivative derivative,
+      DoubleConsumer output) {
+
+    int bands = (xx + BAND - 1) / BAND;
+    int wave = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+    double[][] buffers = new double[Math.min(wave, bands)][];
+
+    for (int first = 0; first < bands; first += buffers.length) {
+      int firstBand = first;
+      int count = Math.min(buffers.length, bands - first);
+      IntStream.range(0, count)
+          .parallel()
+          .forEach(
+              k -> {
+                int from = (firstBand + k) * BAND;
+                int to = Math.min(from + BAND, xx);
+                if (buffers[k] == null) {
+                  buffers[k] = new double[BAND * yy];
+                }
+                band(elevation, xx, yy, from, to, dx, dy, derivative, buffers[k]);
+              });
+      for (int k = 0; k < count; k++) {
+        int columns = Math.min(BAND, xx - (first + k) * BAND);
+        for (int i = 0; i < columns * yy; i++) {
+          output.accept(buffers[k][i]);
+        }
+      }
+    }
+  }
+
+  private static void band(
+      Grid elevation,
+      int xx,
+      int yy,
+      int from,
+      int to,
+      double dx,
+      double dy,
+      Derivative derivative,
+      double[] out) {
+
+    double[] west = column(elevation, Math.max(from - 1, 0), yy, new double[yy]);
+    double[] center = column(elevation, from, yy, new double[yy]);
+    double[] east = new double[yy];
+
+    for (int x = from; x < to; x++) {
+      column(elevation, Math.min(x + 1, xx - 1), yy, east);
+      int offset = (x - from) * yy;
+      for (int y = 0; y < yy; y++) {
+        int s = Math.max(y - 1, 0), n = Math.min(y + 1, yy - 1);
+        // window, north up: a b c / d e f / g h i
+        double a = west[n], b = center[n], c = east[n];
+        double d = west[y], e = center[y], f = east[y];
+        double g = west[s], h = center[s], i = east[s];
+        out[offset + y] =
+            switch (derivative) {
+              case SLOPE -> {
+                double p = ((c + 2 * f + i) - (a + 2 * d + g)) / (8 * dx);
+                double q = ((a + 2 * b + c) - (g + 2 * h + i)) / (8 * dy);
+                yield Math.toDegrees(Math.atan(Math.sqrt(p * p + q * q)));
+              }
+              case ASPECT -> {
+                double p = ((c + 2 * f + i) - (a + 2 * d + g)) / (8 * dx);
+                double q = ((a + 2 * b + c) - (g + 2 * h + i)) / (8 * dy);
+                if (p == 0 && q == 0) {
+                  yield Double.NaN;
+                }
+                double aspect = Math.toDegrees(Math.atan2(-p, -q));
+                yield aspect < 0 ? aspect + 360 : aspect;
+              }
+              case CURVATURE -> {
+                double dxx = ((d + f) * 0.5 - e) / (dx * dx);
+                double dyy = ((b + h) * 0.5 - e) / (dy * dy);
+                yield -200 * (dxx + dyy);
+              }
+            };
+      }
+      double[] t = west;
+      west = center;
+      center = east;
+      east = t;
+    }
+  }
+
+  private static double[] column(Grid elevation, int x, int yy, double[] column) {
+    for (int y = 0; y < yy; y++) {
+      column[y] = elevation.get(x, y);
+    }
+    return column;
+  }
+}
@@ -0,0 +1,123 @@
+package org.integratedmodelling.generators.terrain;
+
+import org.integratedmodelling.generators.utils.Seeds;
+
+import java.util.SplittableRandom;
+
+/**
+ * Fractal Brownian motion over seeded 2D simplex noise (after S. Gustavson's public domain
+ * implementation). Unlike {@link Terrain}, values are computed directly from coordinates with no
+ * backing lattice, so memory use is constant and any point can be evaluated in any order.
+ *
+ * @author Ferd
+ */
+public class FractalNoise {
+
+  private static final double F2 = 0.5 * (Math.sqrt(3.0) - 1.0);
+  private static final double G2 = (3.0 - Math.sqrt(3.0)) / 6.0;
+  private static final int[][] GRADIENTS = {
+    {1, 1}, {-1, 1}, {1, -1}, {-1, -1}, {1, 0}, {-1, 0}, {0, 1}, {0, -1}
+  };
+
+  private final short[] permutation = new short[512];
+  private final int octaves;
+  private final double persistence;
+  private final double rangeMin, rangeMax;
+  private final double amplitudeSum;
+
+  /**
+   * @param octaves number of noise layers, each at twice the frequency of the previous
+   * @param persistence amplitude ratio between successive octaves (0 to 1)
+   * @param rangeMin
+   * @param rangeMax
+   * @param seed
+   */
+  public FractalNoise(
+      int octaves, double persistence, double rangeMin, double rangeMax, long seed) {
+    this.octaves = Math.max(1, octaves);
+    this.persistence = persistence;
+    this.rangeMin = rangeMin;
+    this.rangeMax = rangeMax;
+    double sum = 0, amplitude = 1;
+    for (int i = 0; i < this.octaves; i++) {
+      sum += amplitude;
+      amplitude *= persistence;
+    }
+    this.amplitudeSum = sum;
+
+    short[] p = new short[256];
+    for (short i = 0; i < 256; i++) {
+      p[i] = i;
+    }
+    var rng = new SplittableRandom(Seeds.derive(seed, 0));
+    for (int i = 255; i > 0; i--) {
+      int j = rng.nextInt(i + 1);
+      short t = p[i];
+      p[i] = p[j];
+      p[j] = t;
+    }
+    for (int i = 0; i < 512; i++) {
+      permutation[i] = p[i & 255];
+    }
+  }
+
+  /**
+   * Value at a point, expressed in units of the largest feature wavelength, mapped linearly from
+   * the theoretical [-1, 1] output of the noise to the range.
+   *
+   * @param x
+   * @param y
+   * @return
+   */
+  public double getValue(double x, double y) {
+    double sum = 0, amplitude = 1, frequency = 1;
+    for (int i = 0; i < octaves; i++) {
+      sum += amplitude * noise(x * frequency, y * frequency);
+      amplitude *= persistence;
+      frequency *= 2;
+    }
+    double value = Math.max(-1, Math.min(1, sum / amplitudeSum));
+    return rangeMin + (rangeMax - rangeMin) * (value + 1) * 0.5;
+  }
+
+  private double noise(double xin, double yin) {
+
+    double s = (xin + yin) * F2;
+    int i = fastFloor(xin + s);
+    int j = fastFloor(yin + s);
+    double t = (i + j) * G2;
+    double x0 = xin - (i - t);
+    double y0 = yin - (j - t);
+
+    int i1 = x0 > y0 ? 1 : 0;
+    int j1 = 1 - i1;
+
+    double x1 = x0 - i1 + G2;
+    double y1 = y0 - j1 + G2;
+    double x2 = x0 - 1.0 + 2.0 * G2;
+    double y2 = y0 - 1.0 + 2.0 * G2;
+
+    int ii = i & 255;
+    int jj = j & 255;
+
+    return 70.0
+        * (corner(permutation[ii + permutation[jj]], x0, y0)
+            + corner(permutation[ii + i1 + permutation[jj + j1]], x1, y1)
+            + corner(permutation[ii + 1 + permutation[jj + 1]], x2, y2));
+  }
+
+  private static double corner(int hash, double x, double y) {
+    double t = 0.5 - x * x - y * y;
+    if (t < 0) {
+      return 0.0;
+    }
+    int[] g = GRADIENTS[hash & 7];
+    t *= t;
+    return t * t * (g[0] * x + g[1] * y);
+  }
+
+  private static int fastFloor(double x) {
+    int xi = (int) x;
+    return x < xi ? xi - 1 : xi;
+  }
+}
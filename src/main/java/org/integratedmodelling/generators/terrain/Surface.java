@@ -0,0 +1,167 @@
+package org.integratedmodelling.generators.terrain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Flat storage for a square lattice of terrain values, indexed row-major as <code>
+ * x * stride + y</code>. Implementations trade precision and heap usage according to the {@link
+ * Terrain.Backend} chosen.
+ *
+ * @author Ferd
+ */
+abstract class Surface {
+
+  static Surface create(Terrain.Backend backend, int stride) {
+    long size = (long) stride * stride;
+    if (size > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException(
+          "terrain: lattice of " + stride + "x" + stride + " points is too large");
+    }
+    return switch (backend) {
+      case DOUBLE -> new DoubleSurface((int) size);
+      case FLOAT -> new FloatSurface((int) size);
+      case OFFHEAP -> new OffHeapSurface((int) size);
+    };
+  }
+
+  /**
+   * Map a lattice of doubles, or floats if single, stored little-endian in a file, starting at the
+   * passed offset. The surface reads the file pages directly and cannot be written.
+   */
+  static Surface map(FileChannel channel, long offset, int stride, boolean single)
+      throws IOException {
+    int size = stride * stride;
+    int bytes = single ? Float.BYTES : Double.BYTES;
+    var chunks = new ByteBuffer[((size - 1) >>> OffHeapSurface.CHUNK_BITS) + 1];
+    for (int i = 0; i < chunks.length; i++) {
+      int length = Math.min(OffHeapSurface.CHUNK_MASK + 1, size - (i << OffHeapSurface.CHUNK_BITS));
+      chunks[i] =
+          channel
+              .map(
+                  FileChannel.MapMode.READ_ONLY,
+                  offset + ((long) i << OffHeapSurface.CHUNK_BITS) * bytes,
+                  (long) length * bytes)
+              .order(ByteOrder.LITTLE_ENDIAN);
+    }
+    if (single) {
+      var floats = new FloatBuffer[chunks.length];
+      for (int i = 0; i < chunks.length; i++) {
+        floats[i] = chunks[i].asFloatBuffer();
+      }
+      return new MappedFloatSurface(floats);
+    }
+    var doubles = new DoubleBuffer[chunks.length];
+    for (int i = 0; i < chunks.length; i++) {
+      doubles[i] = chunks[i].asDoubleBuffer();
+    }
+    return new OffHeapSurface(doubles);
+  }
+
+  abstract double get(int index);
+
+  /**
+   * @return the value as actually stored, which may have lost precision
+   */
+  abstract double set(int index, double value);
+
+  static final class DoubleSurface extends Surface {
+
+    private final double[] data;
+
+    DoubleSurface(int size) {
+      this.data = new double[size];
+    }
+
+    @Override
+    double get(int index) {
+      return data[index];
+    }
+
+    @Override
+    double set(int index, double value) {
+      return data[index] = value;
+    }
+  }
+
+  static final class FloatSurface extends Surface {
+
+    private final float[] data;
+
+    FloatSurface(int size) {
+      this.data = new float[size];
+    }
+
+    @Override
+    double get(int index) {
+      return data[index];
+    }
+
+    @Override
+    double set(int index, double value) {
+      return data[index] = (float) value;
+    }
+  }
+
+  /**
+   * Native memory in direct or mapped buffers, split in chunks because a single buffer cannot
+   * exceed 2GB. Memory is released when the surface is garbage collected.
+   */
+  static final class OffHeapSurface extends Surface {
+
+    private static final int CHUNK_BITS = 26;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final DoubleBuffer[] chunks;
+
+    OffHeapSurface(int size) {
+      this.chunks = new DoubleBuffer[((size - 1) >>> CHUNK_BITS) + 1];
+      for (int i = 0; i < chunks.length; i++) {
+        int length = Math.min(CHUNK_MASK + 1, size - (i << CHUNK_BITS));
+        chunks[i] =
+            ByteBuffer.allocateDirect(length * Double.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asDoubleBuffer();
+      }
+    }
+
+    OffHeapSurface(DoubleBuffer[] chunks) {
+      this.chunks = chunks;
+    }
+
+    @Override
+    double get(int index) {
+      return chunks[index >>> CHUNK_BITS].get(index & CHUNK_MASK);
+    }
+
+    @Override
+    double set(int index, double value) {
+      chunks[index >>> CHUNK_BITS].put(index & CHUNK_MASK, value);
+      return value;
+    }
+  }
+
+  /** Read-only floats mapped from a file, in chunks as in {@link OffHeapSurface}. */
+  static final class MappedFloatSurface extends Surface {
+
+    private final FloatBuffer[] chunks;
+
+    MappedFloatSurface(FloatBuffer[] chunks) {
+      this.chunks = chunks;
+    }
+
+    @Override
+    double get(int index) {
+      return chunks[index >>> OffHeapSurface.CHUNK_BITS].get(index & OffHeapSurface.CHUNK_MASK);
+    }
+
+    @Override
+    double set(int index, double value) {
+      throw new UnsupportedOperationException("terrain: mapped surfaces cannot be written");
+    }
+  }
+}
@@ -1,6 +1,11 @@
 package org.integratedmodelling.generators.terrain;
 
-import java.util.Random;
+import org.integratedmodelling.generators.utils.Seeds;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * Terrain generation using the diamond-square algorithm (Fournier et al. 1982) From <a
@@ -11,11 +16,38 @@ import java.util.Random;
  */
 public class Terrain {
 
-  private double[][] terrain;
+  /** Minimum number of rows in a pass for the pass to be run in parallel. */
+  private static final int PARALLEL_ROWS = 64;
+
+  private static final int DIAMOND = 0;
+  private static final int SQUARE = 1;
+
+  /**
+   * Storage for the generated lattice. FLOAT halves the memory at the price of precision; OFFHEAP
+   * keeps the lattice out of the Java heap.
+   */
+  public enum Backend {
+    DOUBLE,
+    FLOAT,
+    OFFHEAP
+  }
+
+  /** Resampling used when the grid and the lattice resolutions differ. */
+  public enum Interpolation {
+    NEAREST,
+    BILINEAR,
+    BICUBIC
+  }
+
+  private Surface terrain;
   private double min, max;
+  private double factor;
   private int divisions;
-  private Random rng;
+  private int stride;
+  private long seed;
   private double rangeMin, rangeMax;
+  // per-row extremes, updated as rows are written so that no separate pass is needed
+  private double[] rowMin, rowMax;
 
   /**
    * @param lod level of detail (number of iterations)
@@ -24,71 +56,194 @@ public class Terrain {
    * @param rangeMax
    */
   public Terrain(int lod, double roughness, double rangeMin, double rangeMax) {
+    this(lod, roughness, rangeMin, rangeMax, Seeds.random());
+  }
+
+  /**
+   * @param lod level of detail (number of iterations)
+   * @param roughness (0 to 1)
+   * @param rangeMin
+   * @param rangeMax
+   * @param seed the random seed. The same parameters and seed produce the same terrain.
+   */
+  public Terrain(int lod, double roughness, double rangeMin, double rangeMax, long seed) {
+    this(lod, roughness, rangeMin, rangeMax, seed, Backend.DOUBLE);
+  }
+
+  /**
+   * @param lod level of detail (number of iterations)
+   * @param roughness (0 to 1)
+   * @param rangeMin
+   * @param rangeMax
+   * @param seed the random seed. The same parameters and seed produce the same terrain.
+   * @param backend the storage for the lattice
+   */
+  public Terrain(
+      int lod, double roughness, double rangeMin, double rangeMax, long seed, Backend backend) {
     this.rangeMin = rangeMin;
     this.rangeMax = rangeMax;
     this.divisions = 1 << lod;
-    terrain = new double[divisions + 1][divisions + 1];
-    rng = new Random();
-    terrain[0][0] = rnd();
-    terrain[0][divisions] = rnd();
-    terrain[divisions][divisions] = rnd();
-    terrain[divisions][0] = rnd();
+    this.stride = divisions + 1;
+    this.seed = seed;
+    terrain = Surface.create(backend, stride);
+    rowMin = new double[stride];
+    rowMax = new double[stride];
+    Arrays.fill(rowMin, Double.POSITIVE_INFINITY);
+    Arrays.fill(rowMax, Double.NEGATIVE_INFINITY);
+    var rng = new SplittableRandom(Seeds.derive(seed, -1));
+    set(0, 0, rnd(rng));
+    set(0, divisions, rnd(rng));
+    set(divisions, divisions, rnd(rng));
+    set(divisions, 0, rnd(rng));
     double rough = roughness;
     for (int i = 0; i < lod; ++i) {
-      int r = 1 << (lod - i), s = r >> 1;
-      for (int j = 0; j < divisions; j += r)
-        for (int k = 0; k < divisions; k += r) diamond(j, k, r, rough);
-      if (s > 0)
-        for (int j = 0; j <= divisions; j += s)
-          for (int k = (j + s) % r; k <= divisions; k += r) square(j - s, k - s, r, rough);
+      int level = i, r = 1 << (lod - i), s = r >> 1;
+      double scale = rough;
+      rows(0, divisions - r, r, j -> diamondRow(level, j, r, scale));
+      if (s > 0) rows(0, divisions, s, j -> squareRow(level, j, r, scale));
       rough *= roughness;
     }
-    min = max = terrain[0][0];
-    for (int i = 0; i <= divisions; ++i)
-      for (int j = 0; j <= divisions; ++j)
-        if (terrain[i][j] < min) min = terrain[i][j];
-        else if (terrain[i][j] > max) max = terrain[i][j];
-  }
-
-  private void diamond(int x, int y, int side, double scale) {
-    if (side > 1) {
-      int half = side / 2;
-      double avg =
-          (terrain[x][y]
-                  + terrain[x + side][y]
-                  + terrain[x + side][y + side]
-                  + terrain[x][y + side])
-              * 0.25;
-      terrain[x + half][y + half] = avg + rnd() * scale;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i <= divisions; ++i) {
+      min = Math.min(min, rowMin[i]);
+      max = Math.max(max, rowMax[i]);
+    }
+    factor = (rangeMax - rangeMin) / (max - min);
+    rowMin = rowMax = null;
+  }
+
+  /**
+   * Terrain over an existing lattice, such as one read from a {@link TerrainCache}.
+   *
+   * @param surface the lattice
+   * @param lod level of detail the lattice was generated with
+   * @param min the minimum lattice value
+   * @param max the maximum lattice value
+   * @param rangeMin
+   * @param rangeMax
+   */
+  Terrain(Surface surface, int lod, double min, double max, double rangeMin, double rangeMax) {
+    this.terrain = surface;
+    this.divisions = 1 << lod;
+    this.stride = divisions + 1;
+    this.min = min;
+    this.max = max;
+    this.rangeMin = rangeMin;
+    this.rangeMax = rangeMax;
+    this.factor = (rangeMax - rangeMin) / (max - min);
+  }
+
+  /**
+   * Run a row operation over rows from, from + step, ... to. All diamond (or square) computations
+   * within a level are independent and each row draws from its own random stream, derived from the
+   * seed and the row position, so the result does not depend on whether or how rows are split
+   * across threads.
+   */
+  private void rows(int from, int to, int step, IntConsumer operation) {
+    int n = (to - from) / step + 1;
+    var rows = IntStream.range(0, n).map(i -> from + i * step);
+    if (n >= PARALLEL_ROWS) {
+      rows = rows.parallel();
+    }
+    rows.forEach(operation);
+  }
+
+  private void diamondRow(int level, int j, int r, double scale) {
+    var rng = new SplittableRandom(Seeds.derive(seed, level, DIAMOND, j));
+    int half = r >> 1;
+    double mn = rowMin[j + half], mx = rowMax[j + half];
+    for (int k = 0; k < divisions; k += r) {
+      double value = diamond(j, k, r, scale, rng);
+      if (value < mn) mn = value;
+      if (value > mx) mx = value;
+    }
+    rowMin[j + half] = mn;
+    rowMax[j + half] = mx;
+  }
+
+  private void squareRow(int level, int j, int r, double scale) {
+    var rng = new SplittableRandom(Seeds.derive(seed, level, SQUARE, j));
+    int s = r >> 1;
+    double mn = rowMin[j], mx = rowMax[j];
+    for (int k = (j + s) % r; k <= divisions; k += r) {
+      double value = square(j - s, k - s, r, scale, rng);
+      if (value < mn) mn = value;
+      if (value > mx) mx = value;
     }
+    rowMin[j] = mn;
+    rowMax[j] = mx;
+  }
+
+  private double diamond(int x, int y, int side, double scale, SplittableRandom rng) {
+    int half = side / 2;
+    double avg = (get(x, y) + get(x + side, y) + get(x + side, y + side) + get(x, y + side)) * 0.25;
+    return terrain.set((x + half) * stride + y + half, avg + rnd(rng) * scale);
   }
 
-  private void square(int x, int y, int side, double scale) {
+  private double square(int x, int y, int side, double scale, SplittableRandom rng) {
     int half = side / 2;
     double avg = 0.0, sum = 0.0;
     if (x >= 0) {
-      avg += terrain[x][y + half];
+      avg += get(x, y + half);
       sum += 1.0;
     }
     if (y >= 0) {
-      avg += terrain[x + half][y];
+      avg += get(x + half, y);
       sum += 1.0;
     }
     if (x + side <= divisions) {
-      avg += terrain[x + side][y + half];
+      avg += get(x + side, y + half);
       sum += 1.0;
     }
     if (y + side <= divisions) {
-      avg += terrain[x + half][y + side];
+      avg += get(x + half, y + side);
       sum += 1.0;
     }
-    terrain[x + half][y + half] = avg / sum + rnd() * scale;
+    return terrain.set((x + half) * stride + y + half, avg / sum + rnd(rng) * scale);
   }
 
-  private double rnd() {
+  private double get(int x, int y) {
+    return terrain.get(x * stride + y);
+  }
+
+  private void set(int x, int y, double value) {
+    value = terrain.set(x * stride + y, value);
+    rowMin[x] = Math.min(rowMin[x], value);
+    rowMax[x] = Math.max(rowMax[x], value);
+  }
+
+  private static double rnd(SplittableRandom rng) {
     return 2. * rng.nextDouble() - 1.0;
   }
 
+  /**
+   * @return the number of lattice intervals on each side of the surface
+   */
+  public int getDivisions() {
+    return divisions;
+  }
+
+  /**
+   * Raw, non-normalized lattice value, used when the surface is the coarse level of a larger
+   * terrain.
+   */
+  double getLatticeValue(int i, int j) {
+    return get(i, j);
+  }
+
+  Surface getSurface() {
+    return terrain;
+  }
+
+  double getLatticeMin() {
+    return min;
+  }
+
+  double getLatticeMax() {
+    return max;
+  }
+
   /**
    * Use to obtain values from normalized cell coordinates.
    *
@@ -97,7 +252,69 @@ public class Terrain {
    * @return the altitude at normalized coordinates
    */
   public double getAltitude(double i, double j) {
-    double alt = terrain[(int) (i * divisions)][(int) (j * divisions)];
-    return rangeMin + ((rangeMax - rangeMin) * (alt - min) / (max - min));
+    double alt = terrain.get((int) (i * divisions) * stride + (int) (j * divisions));
+    return rangeMin + factor * (alt - min);
+  }
+
+  /**
+   * Use to obtain values from normalized cell coordinates, interpolating between lattice points.
+   * Bicubic interpolation may overshoot the lattice values, so the result is clamped to the range.
+   *
+   * @param i 0-1
+   * @param j 0-1
+   * @param interpolation
+   * @return the altitude at normalized coordinates
+   */
+  public double getAltitude(double i, double j, Interpolation interpolation) {
+    if (interpolation == Interpolation.NEAREST) {
+      return getAltitude(i, j);
+    }
+    double u = i * divisions, v = j * divisions;
+    int x = Math.min((int) u, divisions - 1), y = Math.min((int) v, divisions - 1);
+    double fx = u - x, fy = v - y;
+    double alt;
+    if (interpolation == Interpolation.BILINEAR) {
+      double a = get(x, y) + fy * (get(x, y + 1) - get(x, y));
+      double b = get(x + 1, y) + fy * (get(x + 1, y + 1) - get(x + 1, y));
+      alt = a + fx * (b - a);
+    } else {
+      alt =
+          cubic(
+              cubicRow(x - 1, y, fy),
+              cubicRow(x, y, fy),
+              cubicRow(x + 1, y, fy),
+              cubicRow(x + 2, y, fy),
+              fx);
+    }
+    double ret = rangeMin + factor * (alt - min);
+    return Math.max(Math.min(ret, Math.max(rangeMin, rangeMax)), Math.min(rangeMin, rangeMax));
+  }
+
+  private double cubicRow(int x, int y, double fy) {
+    x = Math.max(0, Math.min(x, divisions));
+    return cubic(
+        get(x, Math.max(y - 1, 0)),
+        get(x, y),
+        get(x, y + 1),
+        get(x, Math.min(y + 2, divisions)),
+        fy);
+  }
+
+  /** Catmull-Rom spline through p1 and p2 at t in [0, 1]. */
+  private static double cubic(double p0, double p1, double p2, double p3, double t) {
+    return p1
+        + 0.5 * t * (p2 - p0 + t * (2 * p0 - 5 * p1 + 4 * p2 - p3 + t * (3 * (p1 - p2) + p3 - p0)));
+  }
+
+  /**
+   * @param cells the number of grid cells along the longest side
+   * @return the smallest level of detail whose lattice has at least one point per cell
+   */
+  public static int getLevelOfDetail(long cells) {
+    int lod = 1;
+    while ((1L << lod) < cells) {
+      lod++;
+    }
+    return lod;
   }
 }
@@ -0,0 +1,272 @@
+package org.integratedmodelling.generators.terrain;
+
+import org.integratedmodelling.generators.instrumentation.Instrumentation;
+import org.integratedmodelling.generators.utils.BoundedCache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Disk cache of generated terrain lattices. The lattice only depends on the level of detail,
+ * roughness, seed and precision, so those make up the key; the range and the grid are applied when
+ * the lattice is read, and the same file serves any of them. Each lattice is written once to a file
+ * named after its key and then memory-mapped, so later requests, in this or another process, read
+ * the file pages with no copy and no heap. Lattices for the FLOAT backend are stored and mapped as
+ * floats, the others as doubles; either way a cached lattice is off the heap, whatever the backend
+ * asked for.
+ *
+ * <p>Recently used lattices stay mapped, and concurrent requests for the same missing lattice build
+ * it only once, without holding up requests for other lattices. The files in the directory are kept
+ * under a quota by deleting the least recently used ones, using the modification time as the access
+ * stamp.
+ *
+ * <p>The default cache is enabled by setting the system property <code>
+ * klab.generators.terrain.cache</code> to a directory; <code>klab.generators.terrain.cache.quota
+ * </code> sets the quota in megabytes (default 4096).
+ *
+ * @author Ferd
+ */
+public class TerrainCache {
+
+  private static final long MAGIC = 0x4b4c4142_54455231L; // KLABTER1
+  private static final int HEADER_BYTES = 32;
+  private static final String EXTENSION = ".terrain";
+  private static final int MAPPED_LATTICES = 16;
+  private static final int WRITE_BUFFER = 1 << 20;
+
+  private static final TerrainCache defaultCache = createDefault();
+
+  private record Lattice(Surface surface, int lod, double min, double max) {}
+
+  private final Path directory;
+  private final long quota;
+  private final BoundedCache<String, Lattice> lattices = new BoundedCache<>(MAPPED_LATTICES);
+
+  /**
+   * @param directory where the lattices are stored; created if missing
+   * @param quota maximum total size of the files in bytes
+   */
+  public TerrainCache(Path directory, long quota) {
+    this.directory = directory;
+    this.quota = quota;
+  }
+
+  private static TerrainCache createDefault() {
+    String directory = System.getProperty("klab.generators.terrain.cache");
+    if (directory == null || directory.isBlank()) {
+      return null;
+    }
+    var ret =
+        new TerrainCache(
+            Path.of(directory),
+            Long.getLong("klab.generators.terrain.cache.quota", 4096) * 1024 * 1024);
+    Instrumentation.register("terrain.lattices", ret.lattices);
+    return ret;
+  }
+
+  /**
+   * @return the cache configured through system properties, or null if none is
+   */
+  public static TerrainCache getDefault() {
+    return defaultCache;
+  }
+
+  /**
+   * Same as {@link Terrain#Terrain(int, double, double, double, long, Terrain.Backend)}, reading
+   * the lattice from the cache if present. If the cache cannot be read or written, or the lattice
+   * would not fit the quota, the terrain is built in memory and not kept.
+   */
+  public Terrain get(
+      int lod,
+      double roughness,
+      double rangeMin,
+      double rangeMax,
+      long seed,
+      Terrain.Backend backend) {
+    boolean single = backend == Terrain.Backend.FLOAT;
+    if (size(lod, single) > quota) {
+      return new Terrain(lod, roughness, rangeMin, rangeMax, seed, backend);
+    }
+    String key =
+        String.format(
+            Locale.ROOT,
+            "%d-%016x-%016x-%s",
+            lod,
+            Double.doubleToLongBits(roughness),
+            seed,
+            single ? "f" : "d");
+    try {
+      var lattice = lattices.get(key, k -> load(k, lod, roughness, seed, backend, single));
+      touch(file(key));
+      return new Terrain(
+          lattice.surface(), lattice.lod(), lattice.min(), lattice.max(), rangeMin, rangeMax);
+    } catch (UncheckedIOException e) {
+      return new Terrain(lod, roughness, rangeMin, rangeMax, seed, backend);
+    }
+  }
+
+  private Path file(String key) {
+    return directory.resolve(key + EXTENSION);
+  }
+
+  /**
+   * @return the size of the file for a lattice
+   */
+  private static long size(int lod, boolean single) {
+    long stride = (1L << lod) + 1;
+    return HEADER_BYTES + stride * stride * (single ? Float.BYTES : Double.BYTES);
+  }
+
+  private Lattice load(
+      String key, int lod, double roughness, long seed, Terrain.Backend backend, boolean single) {
+    var file = file(key);
+    try {
+      if (Files.exists(file)) {
+        try {
+          return map(file, lod, single);
+        } catch (IOException e) {
+          // damaged, partially deleted or not the lattice of the key: build it again
+          Files.deleteIfExists(file);
+        }
+      }
+      var terrain = new Terrain(lod, roughness, 0, 1, seed, backend);
+      write(terrain, lod, single, file);
+      evict(size(lod, single), file);
+      return map(file, lod, single);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Write to a temporary file and move it in place, so readers never see a partial lattice. The
+   * header holds the magic number, the level of detail, 1 for floats or 0 for doubles, and the
+   * extremes of the lattice.
+   */
+  private void write(Terrain terrain, int lod, boolean single, Path file) throws IOException {
+    Files.createDirectories(directory);
+    var temp = Files.createTempFile(directory, "terrain", ".tmp");
+    try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+      var buffer = ByteBuffer.allocateDirect(WRITE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+      buffer
+          .putLong(MAGIC)
+          .putInt(lod)
+          .putInt(single ? 1 : 0)
+          .putDouble(terrain.getLatticeMin())
+          .putDouble(terrain.getLatticeMax());
+      var surface = terrain.getSurface();
+      int size = (terrain.getDivisions() + 1) * (terrain.getDivisions() + 1);
+      for (int i = 0; i < size; i++) {
+        if (buffer.remaining() < Double.BYTES) {
+          drain(buffer, channel);
+        }
+        if (single) {
+          buffer.putFloat((float) surface.get(i));
+        } else {
+          buffer.putDouble(surface.get(i));
+        }
+      }
+      drain(buffer, channel);
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    try {
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      // another process may have written the same lattice in the meantime
+      if (!Files.exists(file)) {
+        throw e;
+      }
+    }
+  }
+
+  private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Map the lattice in the file, checking that it has the level of detail and precision expected.
+   */
+  private Lattice map(Path file, int lod, boolean single) throws IOException {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_BYTES) {
+        throw new IOException("terrain cache: " + file + " is truncated");
+      }
+      var header =
+          channel
+              .map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+              .order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getLong() != MAGIC) {
+        throw new IOException("terrain cache: " + file + " is not a terrain lattice");
+      }
+      if (header.getInt() != lod || header.getInt() != (single ? 1 : 0)) {
+        throw new IOException("terrain cache: " + file + " does not hold the lattice of its name");
+      }
+      double min = header.getDouble();
+      double max = header.getDouble();
+      if (channel.size() != size(lod, single)) {
+        throw new IOException("terrain cache: " + file + " is truncated");
+      }
+      int stride = (1 << lod) + 1;
+      // mappings stay valid after the channel is closed
+      return new Lattice(Surface.map(channel, HEADER_BYTES, stride, single), lod, min, max);
+    }
+  }
+
+  private static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // evicted meanwhile: nothing to record
+    }
+  }
+
+  /**
+   * Delete the least recently used files until the directory fits the quota along with the file
+   * just written, which is never deleted.
+   */
+  private void evict(long size, Path written) throws IOException {
+    record Entry(Path file, long size, long lastUsed) {}
+    List<Entry> entries = new ArrayList<>();
+    long total = 0;
+    try (var files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+      for (var file : files) {
+        if (!file.equals(written)) {
+          var attributes = Files.readAttributes(file, "size,lastModifiedTime");
+          long length = (Long) attributes.get("size");
+          entries.add(
+              new Entry(file, length, ((FileTime) attributes.get("lastModifiedTime")).toMillis()));
+          total += length;
+        }
+      }
+    }
+    entries.sort(Comparator.comparingLong(Entry::lastUsed));
+    for (var entry : entries) {
+      if (total + size <= quota) {
+        break;
+      }
+      try {
+        // still valid for anyone who mapped it, on file systems that allow deleting mapped files
+        Files.deleteIfExists(entry.file());
+        total -= entry.size();
+      } catch (IOException e) {
+        // in use where mapped files cannot be deleted: try the next one
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package org.integratedmodelling.generators.terrain;
+
+import java.util.stream.IntStream;
+
+/**
+ * A terrain built once at its finest level of detail, with coarser levels obtained by repeated 2:1
+ * downsampling of the lattice (a mipmap pyramid). Grids of different resolutions are answered from
+ * the level that matches them, so they all see the same surface. Levels are computed on first use
+ * and kept; all of them together take a third of the memory of the finest one.
+ *
+ * <p>All levels are normalized with the extremes of the finest lattice. Downsampling averages
+ * values, so coarse levels stay within the range but may not reach its ends.
+ *
+ * @author Ferd
+ */
+public class TerrainPyramid {
+
+  /** Minimum number of rows in a level for downsampling to run in parallel. */
+  private static final int PARALLEL_ROWS = 64;
+
+  private final Surface[] levels;
+  private final int lod;
+  private final double min, max;
+  private final Terrain.Backend backend;
+
+  /**
+   * @param terrain the finest level
+   * @param backend storage for the coarser levels
+   */
+  public TerrainPyramid(Terrain terrain, Terrain.Backend backend) {
+    this.lod = Integer.numberOfTrailingZeros(terrain.getDivisions());
+    this.levels = new Surface[lod + 1];
+    this.levels[lod] = terrain.getSurface();
+    this.min = terrain.getLatticeMin();
+    this.max = terrain.getLatticeMax();
+    this.backend = backend;
+  }
+
+  /**
+   * @return the level of detail of the finest level
+   */
+  public int getLevelOfDetail() {
+    return lod;
+  }
+
+  /**
+   * @param lod level of detail, capped to the finest available
+   * @param rangeMin
+   * @param rangeMax
+   * @return the terrain at the passed level
+   */
+  public Terrain getTerrain(int lod, double rangeMin, double rangeMax) {
+    int level = Math.max(1, Math.min(lod, this.lod));
+    return new Terrain(getLevel(level), level, min, max, rangeMin, rangeMax);
+  }
+
+  /**
+   * @param cells the number of grid cells along the longest side
+   * @return the terrain at the coarsest level with at least one lattice point per cell, or the
+   *     finest if none has
+   */
+  public Terrain getTerrainForGrid(long cells, double rangeMin, double rangeMax) {
+    return getTerrain(Terrain.getLevelOfDetail(cells), rangeMin, rangeMax);
+  }
+
+  private synchronized Surface getLevel(int level) {
+    if (levels[level] == null) {
+      levels[level] = downsample(getLevel(level + 1), level);
+    }
+    return levels[level];
+  }
+
+  /**
+   * Each point of the coarse lattice takes the [1 2 1] x [1 2 1] weighted average of the fine
+   * points around the one it coincides with, with the borders clamped.
+   */
+  private Surface downsample(Surface fine, int level) {
+    int divisions = 1 << level;
+    int stride = divisions + 1;
+    int fineDivisions = divisions << 1;
+    int fineStride = fineDivisions + 1;
+    var ret = Surface.create(backend, stride);
+    var rows = IntStream.rangeClosed(0, divisions);
+    if (stride >= PARALLEL_ROWS) {
+      rows = rows.parallel();
+    }
+    rows.forEach(
+        i -> {
+          int x = i << 1;
+          int x0 = Math.max(x - 1, 0) * fineStride;
+          int x1 = x * fineStride;
+          int x2 = Math.min(x + 1, fineDivisions) * fineStride;
+          for (int j = 0; j <= divisions; j++) {
+            int y = j << 1;
+            int y0 = Math.max(y - 1, 0), y2 = Math.min(y + 1, fineDivisions);
+            double value =
+                (fine.get(x0 + y0)
+                        + 2 * fine.get(x0 + y)
+                        + fine.get(x0 + y2)
+                        + 2 * (fine.get(x1 + y0) + 2 * fine.get(x1 + y) + fine.get(x1 + y2))
+                        + fine.get(x2 + y0)
+                        + 2 * fine.get(x2 + y)
+                        + fine.get(x2 + y2))
+                    * 0.0625;
+            ret.set(i * stride + j, value);
+          }
+        });
+    return ret;
+  }
+}
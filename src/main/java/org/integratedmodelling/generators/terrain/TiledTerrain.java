@@ -0,0 +1,233 @@
+package org.integratedmodelling.generators.terrain;
+
+import org.integratedmodelling.generators.utils.Seeds;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Diamond-square terrain generated tile by tile, so that the surface never needs to be held in
+ * memory at once. The tile corners come from a coarse {@link Terrain} with one lattice point per
+ * tile corner; the tile edges are built by 1D midpoint displacement seeded only by the edge's
+ * position, so that adjacent tiles compute identical shared edges; the tile interiors are filled by
+ * diamond-square with a per-tile seed and the edges held fixed. Any tile can therefore be
+ * regenerated in isolation and will match its neighbours exactly.
+ *
+ * <p>Values are normalized to the requested range, which requires the global min/max: the first
+ * {@link #scan(int, int, DoubleConsumer)} makes a pass over all tiles that only tracks their
+ * extremes, reusing one tile buffer, and every scan then emits the values one column of tiles at a
+ * time. Memory is one column of tiles whatever the size of the grid, at the cost of building each
+ * tile twice.
+ *
+ * @author Ferd
+ */
+public class TiledTerrain {
+
+  private static final int HORIZONTAL_EDGE = 1;
+  private static final int VERTICAL_EDGE = 2;
+  private static final int TILE = 3;
+
+  private final int lod;
+  private final int tileLod;
+  private final int tileDivisions;
+  private final int tiles;
+  private final double roughness;
+  private final double rangeMin, rangeMax;
+  private final long seed;
+  private final Terrain corners;
+  private double min = Double.NaN, max = Double.NaN;
+
+  /**
+   * @param lod level of detail of the whole surface
+   * @param tileLod level of detail of each tile; the tile has (2^tileLod + 1)^2 lattice points.
+   *     Capped to lod.
+   * @param roughness (0 to 1)
+   * @param rangeMin
+   * @param rangeMax
+   * @param seed
+   */
+  public TiledTerrain(
+      int lod, int tileLod, double roughness, double rangeMin, double rangeMax, long seed) {
+    this.lod = Math.max(1, lod);
+    this.tileLod = Math.max(1, Math.min(tileLod, this.lod));
+    this.tileDivisions = 1 << this.tileLod;
+    this.tiles = 1 << (this.lod - this.tileLod);
+    this.roughness = roughness;
+    this.rangeMin = rangeMin;
+    this.rangeMax = rangeMax;
+    this.seed = seed;
+    this.corners = new Terrain(this.lod - this.tileLod, roughness, 0, 1, Seeds.derive(seed, TILE));
+  }
+
+  /**
+   * Produce the terrain for a grid of the passed size, sending values to the consumer in the same
+   * order as {@link Terrain#getAltitude(double, double)} would be called in an x-major, y-minor
+   * loop. Only one column of tiles is kept in memory at any time, and its values are sent as soon
+   * as it is built.
+   *
+   * @param xx
+   * @param yy
+   * @param output
+   */
+  public void scan(int xx, int yy, DoubleConsumer output) {
+
+    if (Double.isNaN(min)) {
+      computeRange();
+    }
+    int divisions = tiles * tileDivisions;
+    int[] latticeX = lattice(xx, divisions);
+    int[] latticeY = lattice(yy, divisions);
+    int stride = tileDivisions + 1;
+    double factor = (rangeMax - rangeMin) / (max - min);
+    // the tiles of the current column, built when a cell first falls in them; buffers are reused
+    double[][] column = new double[tiles][];
+    boolean[] built = new boolean[tiles];
+    double[] ignored = new double[2];
+
+    for (int x = 0, tx = -1; x < xx; x++) {
+      int a = latticeX[x] % tileDivisions;
+      if (latticeX[x] / tileDivisions != tx) {
+        tx = latticeX[x] / tileDivisions;
+        Arrays.fill(built, false);
+      }
+      for (int y = 0; y < yy; y++) {
+        int ty = latticeY[y] / tileDivisions;
+        if (!built[ty]) {
+          if (column[ty] == null) {
+            column[ty] = new double[stride * stride];
+          }
+          tile(tx, ty, column[ty], ignored);
+          built[ty] = true;
+        }
+        output.accept(
+            rangeMin + factor * (column[ty][a * stride + latticeY[y] % tileDivisions] - min));
+      }
+    }
+  }
+
+  /**
+   * Build every tile, including those no grid cell falls in as they count towards the range, into
+   * the same buffer and keep only the extremes.
+   */
+  private void computeRange() {
+    int stride = tileDivisions + 1;
+    double[] buffer = new double[stride * stride];
+    double[] extremes = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    for (int tx = 0; tx < tiles; tx++) {
+      for (int ty = 0; ty < tiles; ty++) {
+        tile(tx, ty, buffer, extremes);
+      }
+    }
+    this.min = extremes[0];
+    this.max = extremes[1];
+  }
+
+  /** Lattice index of each of the cells along a side. */
+  private static int[] lattice(int cells, int divisions) {
+    int[] ret = new int[cells];
+    for (int i = 0; i < cells; i++) {
+      ret[i] = (int) (i * (1.0 / cells) * divisions);
+    }
+    return ret;
+  }
+
+  /**
+   * Build the raw lattice of tile (tx, ty) into the buffer, stored row-major by x with
+   * (tileDivisions + 1) values per row, widening the passed min and max to the values written.
+   */
+  void tile(int tx, int ty, double[] t, double[] extremes) {
+
+    int n = tileDivisions;
+    int stride = n + 1;
+
+    t[0] = corners.getLatticeValue(tx, ty);
+    t[n * stride] = corners.getLatticeValue(tx + 1, ty);
+    t[n] = corners.getLatticeValue(tx, ty + 1);
+    t[n * stride + n] = corners.getLatticeValue(tx + 1, ty + 1);
+    double mn = Math.min(Math.min(t[0], t[n]), Math.min(t[n * stride], t[n * stride + n]));
+    double mx = Math.max(Math.max(t[0], t[n]), Math.max(t[n * stride], t[n * stride + n]));
+
+    // edges along y at a = 0 and a = n, then along x at b = 0 and b = n
+    double[] edge = new double[stride];
+    for (int side = 0; side <= 1; side++) {
+      int a = side * n;
+      edge(edge, t[a * stride], t[a * stride + n], VERTICAL_EDGE, tx + side, ty);
+      for (int b = 1; b < n; b++) {
+        t[a * stride + b] = edge[b];
+        mn = Math.min(mn, edge[b]);
+        mx = Math.max(mx, edge[b]);
+      }
+      int b = side * n;
+      edge(edge, t[b], t[n * stride + b], HORIZONTAL_EDGE, ty + side, tx);
+      for (int aa = 1; aa < n; aa++) {
+        t[aa * stride + b] = edge[aa];
+        mn = Math.min(mn, edge[aa]);
+        mx = Math.max(mx, edge[aa]);
+      }
+    }
+
+    SplittableRandom rng = new SplittableRandom(Seeds.derive(seed, TILE, tx, ty));
+    double rough = Math.pow(roughness, lod - tileLod + 1);
+    for (int i = 0; i < tileLod; ++i) {
+      int r = 1 << (tileLod - i), s = r >> 1;
+      for (int j = 0; j < n; j += r) {
+        for (int k = 0; k < n; k += r) {
+          double avg =
+              (t[j * stride + k]
+                      + t[(j + r) * stride + k]
+                      + t[(j + r) * stride + k + r]
+                      + t[j * stride + k + r])
+                  * 0.25;
+          double v = t[(j + s) * stride + k + s] = avg + rnd(rng) * rough;
+          mn = Math.min(mn, v);
+          mx = Math.max(mx, v);
+        }
+      }
+      // square step on interior points only: the boundary is already set by the edges
+      for (int j = s; j < n; j += s) {
+        for (int k = (j + s) % r; k <= n; k += r) {
+          if (k == 0 || k == n) {
+            continue;
+          }
+          double avg =
+              (t[(j - s) * stride + k]
+                      + t[(j + s) * stride + k]
+                      + t[j * stride + k - s]
+                      + t[j * stride + k + s])
+                  * 0.25;
+          double v = t[j * stride + k] = avg + rnd(rng) * rough;
+          mn = Math.min(mn, v);
+          mx = Math.max(mx, v);
+        }
+      }
+      rough *= roughness;
+    }
+
+    extremes[0] = Math.min(extremes[0], mn);
+    extremes[1] = Math.max(extremes[1], mx);
+  }
+
+  /**
+   * 1D midpoint displacement between two corner values, seeded by the edge identity so that both
+   * tiles sharing the edge compute the same values.
+   */
+  private void edge(double[] edge, double v0, double v1, int kind, int line, int segment) {
+    int n = tileDivisions;
+    edge[0] = v0;
+    edge[n] = v1;
+    SplittableRandom rng = new SplittableRandom(Seeds.derive(seed, kind, line, segment));
+    double rough = Math.pow(roughness, lod - tileLod + 1);
+    for (int i = 0; i < tileLod; ++i) {
+      int r = 1 << (tileLod - i), s = r >> 1;
+      for (int j = s; j < n; j += r) {
+        edge[j] = (edge[j - s] + edge[j + s]) * 0.5 + rnd(rng) * rough;
+      }
+      rough *= roughness;
+    }
+  }
+
+  private static double rnd(SplittableRandom rng) {
+    return 2. * rng.nextDouble() - 1.0;
+  }
+}
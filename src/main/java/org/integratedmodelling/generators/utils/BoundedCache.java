@@ -0,0 +1,152 @@
+package org.integratedmodelling.generators.utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A concurrent cache with a maximum size, evicting entries not used recently when full. Lookups do
+ * not lock and write no shared state: a hit only sets a reference bit on its entry, if not set
+ * already. Eviction uses the CLOCK (second chance) policy, sweeping the entries from where the last
+ * sweep stopped, clearing the reference bits it finds set and removing the first entry whose bit
+ * was clear, so each eviction visits few entries on average. Keeps hit, miss and eviction counts.
+ *
+ * @param <K>
+ * @param <V>
+ * @author Ferd
+ */
+public class BoundedCache<K, V> {
+
+  private static class Entry<V> {
+    final V value;
+    volatile boolean referenced;
+
+    Entry(V value) {
+      this.value = value;
+    }
+  }
+
+  private final int capacity;
+  private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<K, CompletableFuture<Entry<V>>> loading =
+      new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  // the clock hand, only used while holding the lock of the cache
+  private Iterator<Map.Entry<K, Entry<V>>> hand;
+
+  public BoundedCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Get the value for the key, computing it with the loader if absent. Concurrent requests for the
+   * same missing key compute it only once, and only the request that computes it counts as a miss;
+   * the others wait for its result. Loading happens outside the map, so a long load only holds up
+   * the requests for its own key. Exceptions thrown by the loader are propagated to all the
+   * requests waiting for it and nothing is cached; null values are not cached either.
+   *
+   * @param key
+   * @param loader
+   * @return
+   */
+  public V get(K key, Function<? super K, ? extends V> loader) {
+    var entry = entries.get(key);
+    if (entry == null) {
+      var load = new CompletableFuture<Entry<V>>();
+      var running = loading.putIfAbsent(key, load);
+      if (running != null) {
+        entry = await(running);
+      } else {
+        try {
+          // published by a load that ended after the lookup above
+          entry = entries.get(key);
+          if (entry == null) {
+            misses.increment();
+            V value = loader.apply(key);
+            if (value != null) {
+              entry = new Entry<>(value);
+              entries.put(key, entry);
+              if (entries.size() > capacity) {
+                evict();
+              }
+            }
+            load.complete(entry);
+            return value;
+          }
+          load.complete(entry);
+        } catch (RuntimeException | Error e) {
+          load.completeExceptionally(e);
+          throw e;
+        } finally {
+          loading.remove(key, load);
+        }
+      }
+      if (entry == null) {
+        return null;
+      }
+    }
+    // loaded by another thread counts as a hit
+    hits.increment();
+    if (!entry.referenced) {
+      entry.referenced = true;
+    }
+    return entry.value;
+  }
+
+  private static <V> Entry<V> await(CompletableFuture<Entry<V>> load) {
+    try {
+      return load.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      if (e.getCause() instanceof Error error) {
+        throw error;
+      }
+      throw e;
+    }
+  }
+
+  private synchronized void evict() {
+    // a full turn of the hand clears every bit, so the second turn finds a victim unless hits
+    // keep setting them; then the cache is left over capacity until the next miss
+    int turns = 0;
+    while (entries.size() > capacity) {
+      if (hand == null || !hand.hasNext()) {
+        hand = entries.entrySet().iterator();
+        if (++turns > 2 || !hand.hasNext()) {
+          break;
+        }
+      }
+      var e = hand.next();
+      var entry = e.getValue();
+      if (entry.referenced) {
+        entry.referenced = false;
+      } else if (entries.remove(e.getKey(), entry)) {
+        evictions.increment();
+      }
+    }
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+}
@@ -0,0 +1,327 @@
+package org.integratedmodelling.generators.utils;
+
+import org.apache.commons.math3.distribution.PoissonDistribution;
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.integratedmodelling.generators.instrumentation.Instrumentation;
+import org.integratedmodelling.generators.random.RandomStream;
+import org.integratedmodelling.generators.random.Ziggurat;
+import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Envelope;
+import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Shape;
+import org.integratedmodelling.klab.runtime.scale.space.ShapeImpl;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Generator of random point patterns at large scale. Points are produced as packed x, y coordinates
+ * and only turned into shapes when streamed to the caller. A background grid with cells of side
+ * distance / sqrt(2) holds at most one point per cell, so checking the minimum distance for a new
+ * point looks at a fixed neighbourhood of cells and costs O(1).
+ *
+ * <p>Two patterns are available:
+ *
+ * <ul>
+ *   <li>Poisson-disk (blue noise) sampling, filling the envelope with points no closer than a
+ *       minimum distance (Bridson 2007);
+ *   <li>Thomas cluster processes: uniform cluster centers, a Poisson number of points around each
+ *       with normal offsets, optionally with a minimum distance between points.
+ * </ul>
+ *
+ * Generation is sequential and the points only depend on the seed and the parameters. Instances
+ * hold no state between calls and can be shared.
+ *
+ * @author Ferd
+ */
+public class RandomPoints {
+
+  private static final GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory();
+
+  /** Candidates tried around an active point before it is retired. */
+  private static final int CANDIDATES = 30;
+
+  /** Largest number of cells in the background grid. */
+  private static final long MAX_CELLS = 1L << 28;
+
+  /**
+   * Bytes of heap used per cell of the background grid: the cell itself and, at the packing
+   * density, the coordinates of its points as their array grows and is copied to the result.
+   */
+  private static final long BYTES_PER_CELL = 32;
+
+  /**
+   * Points per squared minimum distance per unit area in a filled Poisson-disk pattern, measured,
+   * used to find the distance that yields a given number of points.
+   */
+  public static final double PACKING = 0.88;
+
+  /**
+   * Offsets of the grid cells that can hold a point closer than the distance: the 5 x 5 block
+   * around a cell without its corners, nearest first so that conflicts are found early.
+   */
+  private static final int[] NEIGHBOURS = {
+    0, 0, -1, 0, 1, 0, 0, -1, 0, 1, -1, -1, -1, 1, 1, -1, 1, 1, -2, 0, 2, 0, 0, -2, 0, 2, -2, -1,
+    -2, 1, 2, -1, 2, 1, -1, -2, 1, -2, -1, 2, 1, 2
+  };
+
+  private final long seed;
+
+  /**
+   * @param seed the same seed produces the same points for the same parameters
+   */
+  public RandomPoints(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * @param envelope
+   * @param count
+   * @return the minimum distance for which a Poisson-disk pattern fills the envelope with about
+   *     count points
+   */
+  public static double distanceFor(Envelope envelope, long count) {
+    double area =
+        (envelope.getMaxX() - envelope.getMinX()) * (envelope.getMaxY() - envelope.getMinY());
+    return Math.sqrt(PACKING * area / Math.max(count, 1));
+  }
+
+  /**
+   * Fill the envelope with points no closer than the distance to each other, until no more fit.
+   *
+   * @param envelope
+   * @param distance
+   * @return the coordinates, x and y interleaved
+   */
+  public double[] poissonDisk(Envelope envelope, double distance) {
+
+    var span = Instrumentation.begin("points", "poisson-disk");
+    long items = 0;
+    try {
+      var random = new RandomStream(seed);
+      var grid = new Grid(envelope, distance);
+      int[] active = new int[64];
+      int nactive = 0;
+
+      active[nactive++] =
+          grid.add(
+              grid.x0 + random.nextDouble() * grid.width,
+              grid.y0 + random.nextDouble() * grid.height);
+
+      // candidates are at evenly spaced angles just outside the distance (Roberts 2016), which
+      // packs more points than random candidates in the annulus and rejects fewer
+      double reach = distance * (1 + 1e-7);
+      double[] cos = new double[CANDIDATES], sin = new double[CANDIDATES];
+      for (int c = 0; c < CANDIDATES; c++) {
+        cos[c] = reach * Math.cos(2 * Math.PI * c / CANDIDATES);
+        sin[c] = reach * Math.sin(2 * Math.PI * c / CANDIDATES);
+      }
+
+      while (nactive > 0) {
+        int slot = random.nextInt(nactive);
+        int point = active[slot];
+        double px = grid.points[2 * point], py = grid.points[2 * point + 1];
+        boolean found = false;
+        // rotate the candidates by a random angle
+        double angle = 2 * Math.PI * random.nextDouble();
+        double rc = Math.cos(angle), rs = Math.sin(angle);
+        for (int c = 0; c < CANDIDATES; c++) {
+          double x = px + rc * cos[c] - rs * sin[c];
+          double y = py + rs * cos[c] + rc * sin[c];
+          if (grid.contains(x, y) && grid.isFree(x, y)) {
+            if (nactive == active.length) {
+              active = Arrays.copyOf(active, nactive * 2);
+            }
+            active[nactive++] = grid.add(x, y);
+            found = true;
+            break;
+          }
+        }
+        if (!found) {
+          active[slot] = active[--nactive];
+        }
+      }
+
+      items = grid.size;
+      return Arrays.copyOf(grid.points, 2 * grid.size);
+    } finally {
+      span.end(items);
+    }
+  }
+
+  /**
+   * Thomas cluster process in the envelope. Points falling outside the envelope or closer than the
+   * distance to a previous point are dropped.
+   *
+   * @param envelope
+   * @param clusters number of cluster centers
+   * @param size mean number of points per cluster
+   * @param spread standard deviation of the distance of points from their center, on each axis
+   * @param distance minimum distance between points; 0 for none
+   * @return the coordinates, x and y interleaved
+   */
+  public double[] clustered(
+      Envelope envelope, int clusters, double size, double spread, double distance) {
+
+    if (clusters < 1 || size < 0 || spread < 0) {
+      throw new IllegalArgumentException(
+          "points: clusters must be at least 1, size and spread not negative");
+    }
+    var span = Instrumentation.begin("points", "clustered");
+    long items = 0;
+    try {
+      var random = new RandomStream(seed);
+      var grid = distance > 0 ? new Grid(envelope, distance) : null;
+      double x0 = envelope.getMinX(), y0 = envelope.getMinY();
+      double width = envelope.getMaxX() - x0, height = envelope.getMaxY() - y0;
+      var poisson =
+          new PoissonDistribution(
+              random,
+              size,
+              PoissonDistribution.DEFAULT_EPSILON,
+              PoissonDistribution.DEFAULT_MAX_ITERATIONS);
+
+      double[] points = grid == null ? new double[64] : null;
+      int n = 0;
+
+      for (int k = 0; k < clusters; k++) {
+        double cx = x0 + random.nextDouble() * width;
+        double cy = y0 + random.nextDouble() * height;
+        int children = poisson.sample();
+        for (int i = 0; i < children; i++) {
+          double x = cx + spread * Ziggurat.normal(random);
+          double y = cy + spread * Ziggurat.normal(random);
+          if (x < x0 || x >= x0 + width || y < y0 || y >= y0 + height) {
+            continue;
+          }
+          if (grid != null) {
+            if (grid.isFree(x, y)) {
+              grid.add(x, y);
+            }
+          } else {
+            if (2 * n == points.length) {
+              points = Arrays.copyOf(points, points.length * 2);
+            }
+            points[2 * n] = x;
+            points[2 * n + 1] = y;
+            n++;
+          }
+        }
+      }
+
+      var ret =
+          grid == null ? Arrays.copyOf(points, 2 * n) : Arrays.copyOf(grid.points, 2 * grid.size);
+      items = ret.length / 2;
+      return ret;
+    } finally {
+      span.end(items);
+    }
+  }
+
+  /**
+   * @param coordinates x and y interleaved
+   * @param envelope the envelope whose projection the points are in
+   * @return a point shape for each coordinate pair, built as the stream is consumed
+   */
+  public static Stream<Shape> shapes(double[] coordinates, Envelope envelope) {
+    var projection = envelope.getProjection();
+    return IntStream.range(0, coordinates.length / 2)
+        .mapToObj(
+            i ->
+                ShapeImpl.create(
+                    geometryFactory.createPoint(
+                        new Coordinate(coordinates[2 * i], coordinates[2 * i + 1])),
+                    projection));
+  }
+
+  /**
+   * Background grid of cells of side distance / sqrt(2), each holding the index of its point plus
+   * one, or 0 when empty. A point closer than the distance to a new one can only be in the {@link
+   * #NEIGHBOURS} of its cell.
+   */
+  private static final class Grid {
+
+    final double x0, y0, width, height;
+    final double cell;
+    final double r2;
+    final int columns, rows;
+    final int[] cells;
+    double[] points = new double[128];
+    int size;
+
+    Grid(Envelope envelope, double distance) {
+      if (distance <= 0) {
+        throw new IllegalArgumentException("points: the minimum distance must be positive");
+      }
+      this.x0 = envelope.getMinX();
+      this.y0 = envelope.getMinY();
+      this.width = envelope.getMaxX() - x0;
+      this.height = envelope.getMaxY() - y0;
+      this.cell = distance / Math.sqrt(2);
+      this.r2 = distance * distance;
+      long columns = Math.max(1, (long) Math.ceil(width / cell));
+      long rows = Math.max(1, (long) Math.ceil(height / cell));
+      // half the heap at most, so that a distance too small fails here rather than in the middle
+      long limit = Math.min(MAX_CELLS, Runtime.getRuntime().maxMemory() / 2 / BYTES_PER_CELL);
+      if (columns > limit || rows > limit || columns * rows > limit) {
+        throw new IllegalArgumentException(
+            "points: minimum distance "
+                + distance
+                + " too small for the extent: "
+                + columns
+                + " x "
+                + rows
+                + " cells, at most "
+                + limit
+                + " allowed");
+      }
+      this.columns = (int) columns;
+      this.rows = (int) rows;
+      this.cells = new int[this.columns * this.rows];
+    }
+
+    boolean contains(double x, double y) {
+      return x >= x0 && x < x0 + width && y >= y0 && y < y0 + height;
+    }
+
+    private int column(double x) {
+      return Math.min(columns - 1, (int) ((x - x0) / cell));
+    }
+
+    private int row(double y) {
+      return Math.min(rows - 1, (int) ((y - y0) / cell));
+    }
+
+    boolean isFree(double x, double y) {
+      int cx = column(x), cy = row(y);
+      for (int k = 0; k < NEIGHBOURS.length; k += 2) {
+        int i = cx + NEIGHBOURS[k], j = cy + NEIGHBOURS[k + 1];
+        if (i < 0 || j < 0 || i >= columns || j >= rows) {
+          continue;
+        }
+        int p = cells[i * rows + j] - 1;
+        if (p >= 0) {
+          double dx = points[2 * p] - x, dy = points[2 * p + 1] - y;
+          if (dx * dx + dy * dy < r2) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return the index of the point added
+     */
+    int add(double x, double y) {
+      if (2 * size == points.length) {
+        points = Arrays.copyOf(points, points.length * 2);
+      }
+      points[2 * size] = x;
+      points[2 * size + 1] = y;
+      cells[column(x) * rows + row(y)] = size + 1;
+      return size++;
+    }
+  }
+}
@@ -1,25 +1,58 @@
 package org.integratedmodelling.generators.utils;
 
 import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.random.RandomGenerator;
 import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.integratedmodelling.generators.instrumentation.Instrumentation;
+import org.integratedmodelling.generators.random.RandomStream;
 import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Envelope;
 import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Projection;
 import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Shape;
 import org.integratedmodelling.klab.runtime.scale.space.ShapeImpl;
-import org.locationtech.jts.algorithm.ConvexHull;
-import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
-import java.util.Random;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+/**
+ * Generator of random non-overlapping shapes. Instances hold their own random state and are meant
+ * to be confined to a single request: create one per request rather than sharing it between
+ * threads.
+ */
 public class RandomShapes {
 
-  Random random = new Random();
-  GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory();
+  private static final GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory();
+
+  /** Cells are generated in batches of this size, in parallel when the grid is large enough. */
+  private static final int BATCH_SIZE = 4096;
+
+  private static final int PARALLEL_CELLS = 256;
+
+  // polygon vertices are at least this fraction of the way from the cell center to its edge
+  private static final double MIN_RADIUS = 0.2;
+  private static final double MAX_ANGLE_JITTER = 0.9;
+
+  private final long seed;
+  private final RandomGenerator random;
+
+  public RandomShapes() {
+    this(Seeds.random());
+  }
+
+  /**
+   * @param seed the same seed produces the same shapes for the same parameters
+   */
+  public RandomShapes(long seed) {
+    this.seed = seed;
+    this.random = new RandomStream(seed);
+  }
 
   /**
    * Create a number of random boxes by subdividing the sides of an envelope into a specified number
@@ -35,14 +68,35 @@ public class RandomShapes {
    */
   public Collection<Shape> create(
       Envelope envelope, int xdivs, int ydivs, double frequency, int vertices) {
+    try (var shapes = stream(envelope, xdivs, ydivs, frequency, vertices)) {
+      return shapes.collect(Collectors.toCollection(ArrayList<Shape>::new));
+    }
+  }
 
-    List<Shape> ret = new ArrayList<>();
+  /**
+   * Lazy version of {@link #create(Envelope, int, int, double, int)}: shapes are produced in
+   * batches of cells as the stream is consumed, so only the cell breaks and one batch are held in
+   * memory. Each cell draws from its own stream derived from the seed and the cell index, so large
+   * batches are generated in parallel and the shapes do not depend on the number of workers. The
+   * call is timed until the last batch is generated, or until the stream is closed if it is not
+   * consumed to the end.
+   *
+   * @param envelope
+   * @param xdivs
+   * @param ydivs
+   * @param frequency
+   * @param vertices if 1, generate a point; if 2, generate a line; if 3+, generate a polygon
+   * @return
+   */
+  public Stream<Shape> stream(
+      Envelope envelope, int xdivs, int ydivs, double frequency, int vertices) {
 
+    var span = Instrumentation.begin("shapes", null);
     double xwidth = (envelope.getMaxX() - envelope.getMinX()) / xdivs;
     double ywidth = (envelope.getMaxY() - envelope.getMinY()) / ydivs;
 
-    NormalDistribution xnormal = new NormalDistribution(xwidth, 0.1);
-    NormalDistribution ynormal = new NormalDistribution(ywidth, 0.1);
+    NormalDistribution xnormal = new NormalDistribution(random, xwidth, 0.1);
+    NormalDistribution ynormal = new NormalDistribution(random, ywidth, 0.1);
 
     if (xdivs == 1 || ydivs == 1) {
 
@@ -56,45 +110,116 @@ public class RandomShapes {
               envelope.getMinY(),
               envelope.getMaxY(),
               vertices,
-              envelope.getProjection());
-      if (!shape.isEmpty()) {
-        ret.add(shape);
-      }
+              envelope.getProjection(),
+              random);
+      span.end(shape.isEmpty() ? 0 : 1);
+      return shape.isEmpty() ? Stream.empty() : Stream.of(shape);
+    }
 
-    } else {
+    double[] xbreaks = breaks(envelope.getMinX(), envelope.getMaxX(), xwidth, xnormal);
+    double[] ybreaks = breaks(envelope.getMinY(), envelope.getMaxY(), ywidth, ynormal);
+    int rows = ybreaks.length - 1;
+    int cells = (xbreaks.length - 1) * rows;
 
-      List<Double> xbreaks = new ArrayList<>();
-      List<Double> ybreaks = new ArrayList<>();
-      for (double xlimit = envelope.getMinX();
-          xlimit < envelope.getMaxX();
-          xlimit += randomIncrement(xwidth, xnormal)) {
-        xbreaks.add(xlimit);
-      }
-      for (double ylimit = envelope.getMinY();
-          ylimit < envelope.getMaxY();
-          ylimit += randomIncrement(ywidth, ynormal)) {
-        ybreaks.add(ylimit);
-      }
+    int batches = (Math.max(cells, 0) + BATCH_SIZE - 1) / BATCH_SIZE;
+    if (batches == 0) {
+      span.end(0);
+      return Stream.empty();
+    }
 
-      for (int x = 1; x < xbreaks.size(); x++) {
-        for (int y = 1; y < ybreaks.size(); y++) {
-          if (Math.random() <= frequency) {
-            var shape = createPolygon(
-                    xbreaks.get(x - 1),
-                    xbreaks.get(x),
-                    ybreaks.get(y - 1),
-                    ybreaks.get(y),
-                    vertices,
-                    envelope.getProjection());
-            if (!shape.isEmpty()) {
-                ret.add(shape);
-            }
-          }
-        }
-      }
+    // batches are requested in order by the consuming thread, which also ends the span
+    long[] produced = {0};
+    return IntStream.range(0, batches)
+        .boxed()
+        .flatMap(
+            batch -> {
+              var batchCells =
+                  IntStream.range(batch * BATCH_SIZE, Math.min((batch + 1) * BATCH_SIZE, cells));
+              if (cells >= PARALLEL_CELLS) {
+                batchCells = batchCells.parallel();
+              }
+              var shapes =
+                  batchCells
+                      .mapToObj(
+                          cell ->
+                              createCell(
+                                  cell,
+                                  xbreaks,
+                                  ybreaks,
+                                  frequency,
+                                  vertices,
+                                  envelope.getProjection()))
+                      .filter(Objects::nonNull)
+                      .toList();
+              produced[0] += shapes.size();
+              if (batch == batches - 1) {
+                span.end(produced[0]);
+              }
+              return shapes.stream();
+            })
+        .onClose(() -> span.end(produced[0]));
+  }
+
+  /**
+   * Shape for one cell of the grid defined by the breaks, or null if the cell stays empty. Only
+   * depends on the seed and the cell index.
+   */
+  private Shape createCell(
+      int cell,
+      double[] xbreaks,
+      double[] ybreaks,
+      double frequency,
+      int vertices,
+      Projection projection) {
+    var cellRandom = new RandomStream(Seeds.derive(seed, cell));
+    if (cellRandom.nextDouble() > frequency) {
+      return null;
     }
+    int rows = ybreaks.length - 1;
+    int x = cell / rows + 1;
+    int y = cell % rows + 1;
+    var shape =
+        createPolygon(
+            xbreaks[x - 1],
+            xbreaks[x],
+            ybreaks[y - 1],
+            ybreaks[y],
+            vertices,
+            projection,
+            cellRandom);
+    return shape.isEmpty() ? null : shape;
+  }
 
-    return ret;
+  private double[] breaks(double min, double max, double width, NormalDistribution distribution) {
+    var ret = DoubleStream.builder();
+    for (double limit = min; limit < max; limit += randomIncrement(width, distribution)) {
+      ret.add(limit);
+    }
+    return ret.build().toArray();
+  }
+
+  /**
+   * Create a random shape within one cell of a regular grid subdividing the envelope.
+   *
+   * @param envelope
+   * @param xdivs
+   * @param ydivs
+   * @param x the cell column, 0 to xdivs - 1
+   * @param y the cell row, 0 to ydivs - 1
+   * @param vertices if 1, generate a point; if 2, generate a line; if 3+, generate a polygon
+   * @return
+   */
+  public Shape create(Envelope envelope, int xdivs, int ydivs, int x, int y, int vertices) {
+    double xwidth = (envelope.getMaxX() - envelope.getMinX()) / xdivs;
+    double ywidth = (envelope.getMaxY() - envelope.getMinY()) / ydivs;
+    return createPolygon(
+        envelope.getMinX() + x * xwidth,
+        envelope.getMinX() + (x + 1) * xwidth,
+        envelope.getMinY() + y * ywidth,
+        envelope.getMinY() + (y + 1) * ywidth,
+        vertices,
+        envelope.getProjection(),
+        random);
   }
 
   private double randomIncrement(double width, NormalDistribution distribution) {
@@ -110,22 +235,72 @@ public class RandomShapes {
     return ret;
   }
 
+  /**
+   * Build a valid shape inside the box in one pass. Polygons are star-shaped around the box center:
+   * vertex angles are evenly spaced with random jitter, so they are strictly increasing, and each
+   * vertex lies at a random fraction of the distance from the center to the box edge along its
+   * angle. Vertices sorted by angle around a point always form a simple polygon, so no validity
+   * check or retry is needed and the result has exactly the requested number of vertices.
+   */
   private Shape createPolygon(
-      double x0, double x1, double y0, double y1, int vertices, Projection projection) {
-
-    Geometry poly = null;
-    boolean valid = false;
-    while (!valid) {
-      ArrayList<Coordinate> points = new ArrayList<Coordinate>();
-      for (int i = 0; i < vertices; i++) {
-        double x = x0 + (random.nextDouble() * (x1 - x0));
-        double y = y0 + (random.nextDouble() * (y1 - y0));
-        points.add(new Coordinate(x, y));
+      double x0,
+      double x1,
+      double y0,
+      double y1,
+      int vertices,
+      Projection projection,
+      RandomGenerator random) {
+
+    double[] coordinates = new double[2 * (vertices < 3 ? vertices : vertices + 1)];
+    Geometry geometry;
+
+    if (vertices < 3) {
+      for (int i = 0; i < coordinates.length; i += 2) {
+        coordinates[i] = x0 + random.nextDouble() * (x1 - x0);
+        coordinates[i + 1] = y0 + random.nextDouble() * (y1 - y0);
       }
-      poly = new ConvexHull(points.toArray(new Coordinate[0]), geometryFactory).getConvexHull();
-      valid = poly.isValid();
+      var sequence = new PackedCoordinateSequence.Double(coordinates, 2, 0);
+      geometry =
+          vertices == 1
+              ? geometryFactory.createPoint(sequence)
+              : geometryFactory.createLineString(sequence);
+    } else {
+      starPolygon(x0, x1, y0, y1, vertices, random, coordinates);
+      geometry =
+          geometryFactory.createPolygon(new PackedCoordinateSequence.Double(coordinates, 2, 0));
     }
-    return ShapeImpl.create(poly, projection);
+
+    return ShapeImpl.create(geometry, projection);
   }
 
+  /**
+   * Fill the coordinates with a closed star-shaped polygon in the box, as described in {@link
+   * #createPolygon(double, double, double, double, int, Projection, RandomGenerator)}.
+   *
+   * @param coordinates x and y interleaved, with room for vertices + 1 points
+   */
+  static void starPolygon(
+      double x0,
+      double x1,
+      double y0,
+      double y1,
+      int vertices,
+      RandomGenerator random,
+      double[] coordinates) {
+    double cx = (x0 + x1) * 0.5, cy = (y0 + y1) * 0.5;
+    double hw = (x1 - x0) * 0.5, hh = (y1 - y0) * 0.5;
+    double step = 2 * Math.PI / vertices;
+    double start = random.nextDouble() * step;
+    for (int i = 0; i < vertices; i++) {
+      double angle = start + (i + random.nextDouble() * MAX_ANGLE_JITTER) * step;
+      double cos = Math.cos(angle), sin = Math.sin(angle);
+      double reach =
+          Math.min(hw / Math.max(Math.abs(cos), 1e-12), hh / Math.max(Math.abs(sin), 1e-12));
+      double radius = reach * (MIN_RADIUS + random.nextDouble() * (1 - MIN_RADIUS));
+      coordinates[2 * i] = cx + radius * cos;
+      coordinates[2 * i + 1] = cy + radius * sin;
+    }
+    coordinates[2 * vertices] = coordinates[0];
+    coordinates[2 * vertices + 1] = coordinates[1];
+  }
 }
@@ -0,0 +1,49 @@
+package org.integratedmodelling.generators.utils;
+
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic seed derivation for the generators. All derived seeds are obtained by mixing a
+ * user-level seed with integer keys (tile coordinates, chunk indices etc.) through the SplitMix64
+ * finalizer, so that any part of a generated artifact can be recomputed independently of the order
+ * in which the parts are produced.
+ *
+ * @author Ferd
+ */
+public final class Seeds {
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private Seeds() {}
+
+  /**
+   * @return a fresh random seed, used when the user does not specify one
+   */
+  public static long random() {
+    return new SplittableRandom().nextLong();
+  }
+
+  /**
+   * SplitMix64 finalizer: a bijective, well-avalanching mix of a 64-bit value.
+   *
+   * @param z
+   * @return
+   */
+  public static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  public static long derive(long seed, long key) {
+    return mix(mix(seed + GOLDEN_GAMMA) ^ (key * GOLDEN_GAMMA));
+  }
+
+  public static long derive(long seed, long key1, long key2) {
+    return derive(derive(seed, key1), key2);
+  }
+
+  public static long derive(long seed, long key1, long key2, long key3) {
+    return derive(derive(derive(seed, key1), key2), key3);
+  }
+}
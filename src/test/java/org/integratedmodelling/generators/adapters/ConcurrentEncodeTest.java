@@ -0,0 +1,108 @@
+package org.integratedmodelling.generators.adapters;
+
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Observable;
+import org.integratedmodelling.klab.api.knowledge.Urn;
+import org.integratedmodelling.klab.configuration.ServiceConfiguration;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Simultaneous encode calls on one adapter must each produce what the same call produces alone.
+ * Throughput scaling is measured by EncodeBenchmark, not asserted here.
+ */
+class ConcurrentEncodeTest {
+
+  private static final int THREADS = 32;
+  private static final String GRID = "S2(200,150){bbox=[-75.2 -72.7 3.5 5.3],proj=EPSG:4326}";
+  private static final int CELLS = 200 * 150;
+
+  private static final String[] URNS = {
+    "klab:random:data:gaussian?p0=10&p1=2&seed=1",
+    "klab:random:data:gamma?p0=2&p1=3&seed=2",
+    "klab:random:data:poisson?p0=4&seed=3",
+    "klab:random:data:uniform?p0=-1&p1=1&seed=4",
+    "klab:random:data:gaussian?sequence=sobol&dimension=3&run=17",
+    "klab:random:data:beta?p0=2&p1=5&sequence=halton&dimension=1&run=5",
+    "klab:random:data:gaussian?p0=15&p1=4&autocorrelation=0.8&seed=5",
+    "klab:random:fields:exponential?length=0.3&seed=6"
+  };
+
+  @BeforeAll
+  public static void beforeAll() {
+    var ignored = ServiceConfiguration.INSTANCE.allowAnonymousUsage();
+  }
+
+  static double[] encode(RandomGeneratorAdapter adapter, Urn urn) {
+    var observable = Observable.objects("value");
+    var geometry = Geometry.create(GRID);
+    double[] ret = new double[CELLS];
+    var filler =
+        new Storage.DoubleScanner() {
+          int n;
+
+          @Override
+          public void add(double value) {
+            ret[n++] = value;
+          }
+
+          @Override
+          public long size() {
+            return CELLS;
+          }
+        };
+    // each call has a scope of its own, so temporal processes start from their first tick
+    adapter.encode(
+        urn,
+        filler,
+        Data.builder("value", observable, geometry),
+        geometry,
+        observable,
+        RandomProcessesTest.scope());
+    assertEquals(CELLS, filler.n, "values produced for " + urn);
+    return ret;
+  }
+
+  @Test
+  public void simultaneousEncodesMatchSingleThreaded() throws Exception {
+
+    var expected = new double[URNS.length][];
+    var reference = new RandomGeneratorAdapter();
+    for (int i = 0; i < URNS.length; i++) {
+      expected[i] = encode(reference, Urn.of(URNS[i]));
+    }
+
+    // a fresh adapter, so that the concurrent calls also race to fill its caches
+    var adapter = new RandomGeneratorAdapter();
+    var executor = Executors.newFixedThreadPool(THREADS);
+    var start = new CountDownLatch(1);
+    var results = new ArrayList<Future<double[]>>();
+    try {
+      for (int t = 0; t < THREADS; t++) {
+        var urn = Urn.of(URNS[t % URNS.length]);
+        results.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  return encode(adapter, urn);
+                }));
+      }
+      start.countDown();
+      for (int t = 0; t < THREADS; t++) {
+        // get() rethrows any exception raised by the call
+        assertArrayEquals(expected[t % URNS.length], results.get(t).get(), URNS[t % URNS.length]);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package org.integratedmodelling.generators.adapters;
+
+import org.integratedmodelling.generators.instrumentation.Instrumentation;
+import org.integratedmodelling.klab.api.data.Data;
+import org.integratedmodelling.klab.api.data.Storage;
+import org.integratedmodelling.klab.api.geometry.Geometry;
+import org.integratedmodelling.klab.api.knowledge.Observable;
+import org.integratedmodelling.klab.api.knowledge.Urn;
+import org.integratedmodelling.klab.api.scope.Scope;
+import org.integratedmodelling.klab.configuration.ServiceConfiguration;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * State kept by the adapter between the time steps of a run: runs of the same URN in different
+ * scopes, interleaved tick by tick, must produce what each produces alone.
+ */
+class RandomProcessesTest {
+
+  private static final int TICKS = 12;
+  private static final long YEAR = 365L * 24 * 3600 * 1000;
+  private static final long START = 1609459200000L;
+  private static final String GRID = "S2(40,30){bbox=[-75.2 -72.7 3.5 5.3],proj=EPSG:4326}";
+  private static final int CELLS = 40 * 30;
+
+  @BeforeAll
+  public static void beforeAll() {
+    var ignored = ServiceConfiguration.INSTANCE.allowAnonymousUsage();
+    Instrumentation.setEnabled(true);
+  }
+
+  @AfterAll
+  public static void afterAll() {
+    Instrumentation.setEnabled(false);
+  }
+
+  static Geometry tick(int k) {
+    long start = START + k * YEAR;
+    return Geometry.create(
+        "τ0(1){ttype=LOGICAL,period=["
+            + start
+            + " "
+            + (start + YEAR)
+            + "],tscope=1.0,tunit=YEAR}"
+            + GRID);
+  }
+
+  static Scope scope() {
+    return (Scope)
+        Proxy.newProxyInstance(
+            Scope.class.getClassLoader(),
+            new Class<?>[] {Scope.class},
+            (proxy, method, args) ->
+                switch (method.getName()) {
+                  case "equals" -> proxy == args[0];
+                  case "hashCode" -> System.identityHashCode(proxy);
+                  case "toString" -> "scope@" + System.identityHashCode(proxy);
+                  default -> null;
+                });
+  }
+
+  static long metric(String name) {
+    return Instrumentation.getMetrics().getOrDefault(name, 0L).longValue();
+  }
+
+  /** Encode tick k of the run in the scope and record the number of events started. */
+  static void events(RandomGeneratorAdapter adapter, Urn urn, Scope scope, int k, long[] counts) {
+    var observable = Observable.objects("fire");
+    var geometry = tick(k);
+    long before = metric("random.events.items");
+    adapter.encode(
+        urn, null, Data.builder("fires", observable, geometry), geometry, observable, scope);
+    counts[k] = metric("random.events.items") - before;
+  }
+
+  /** Encode tick k of the run in the scope and record the values of the cells. */
+  static void data(RandomGeneratorAdapter adapter, Urn urn, Scope scope, int k, double[][] values) {
+    var observable = Observable.objects("temperature");
+    var geometry = tick(k);
+    values[k] = new double[CELLS];
+    var filler =
+        new Storage.DoubleScanner() {
+          int n;
+
+          @Override
+          public void add(double value) {
+            values[k][n++] = value;
+          }
+
+          @Override
+          public long size() {
+            return CELLS;
+          }
+        };
+    adapter.encode(
+        urn,
+        filler,
+        Data.builder("temperature", observable, geometry),
+        geometry,
+        observable,
+        scope);
+  }
+
+  @Test
+  public void interleavedEventRuns() {
+    var urn = Urn.of("klab:random:events:polygons?fraction=0.2&seed=42");
+
+    var alone = new long[TICKS];
+    var adapter = new RandomGeneratorAdapter();
+    var single = scope();
+    for (int k = 0; k < TICKS; k++) {
+      events(adapter, urn, single, k, alone);
+    }
+
+    // the second run starts when the first is half way, so each of its ticks goes back in time
+    adapter = new RandomGeneratorAdapter();
+    var first = new long[TICKS];
+    var second = new long[TICKS];
+    var a = scope();
+    var b = scope();
+    for (int k = 0; k < TICKS; k++) {
+      events(adapter, urn, a, k, first);
+      if (k >= TICKS / 2) {
+        events(adapter, urn, b, k - TICKS / 2, second);
+      }
+    }
+    for (int k = TICKS / 2; k < TICKS; k++) {
+      events(adapter, urn, b, k, second);
+    }
+
+    assertArrayEquals(alone, first);
+    assertArrayEquals(alone, second);
+  }
+
+  @Test
+  public void interleavedDataRuns() {
+    var urn = Urn.of("klab:random:data:gaussian?p0=15&p1=4&autocorrelation=0.8&seed=42");
+
+    var alone = new double[TICKS][];
+    var adapter = new RandomGeneratorAdapter();
+    var single = scope();
+    for (int k = 0; k < TICKS; k++) {
+      data(adapter, urn, single, k, alone);
+    }
+
+    adapter = new RandomGeneratorAdapter();
+    var first = new double[TICKS][];
+    var second = new double[TICKS][];
+    var a = scope();
+    var b = scope();
+    for (int k = 0; k < TICKS; k++) {
+      data(adapter, urn, a, k, first);
+      if (k >= TICKS / 2) {
+        data(adapter, urn, b, k - TICKS / 2, second);
+      }
+    }
+    for (int k = TICKS / 2; k < TICKS; k++) {
+      data(adapter, urn, b, k, second);
+    }
+
+    for (int k = 0; k < TICKS; k++) {
+      assertArrayEquals(alone[k], first[k]);
+      assertArrayEquals(alone[k], second[k]);
+    }
+
+    // consecutive ticks of each cell are correlated as requested, within sampling error
+    double sxy = 0, sxx = 0, syy = 0;
+    for (int k = 1; k < TICKS; k++) {
+      for (int i = 0; i < CELLS; i++) {
+        double x = (alone[k - 1][i] - 15) / 4, y = (alone[k][i] - 15) / 4;
+        sxy += x * y;
+        sxx += x * x;
+        syy += y * y;
+      }
+    }
+    assertEquals(0.8, sxy / Math.sqrt(sxx * syy), 0.05);
+  }
+}
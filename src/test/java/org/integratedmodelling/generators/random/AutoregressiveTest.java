@@ -0,0 +1,70 @@
+package org.integratedmodelling.generators.random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AutoregressiveTest {
+
+  private static final int CELLS = 200_000;
+
+  private static float[] values(Autoregressive process) {
+    float[] ret = new float[process.size()];
+    int[] n = {0};
+    process.scan(z -> z, value -> ret[n[0]++] = (float) value);
+    return ret;
+  }
+
+  /**
+   * Over many cells, each step keeps the standard normal marginal and correlates with the previous
+   * one by phi, within five standard errors.
+   */
+  @Test
+  public void stationaryWithLagOneCorrelation() {
+    for (double phi : new double[] {0, 0.5, 0.95, -0.7}) {
+      var process = new Autoregressive(CELLS, 42);
+      process.advance(phi);
+      float[] previous = values(process);
+      for (int step = 1; step <= 5; step++) {
+        process.advance(phi);
+        float[] current = values(process);
+        double mean = 0, variance = 0, covariance = 0;
+        for (int i = 0; i < CELLS; i++) {
+          mean += current[i];
+          variance += current[i] * current[i];
+          covariance += previous[i] * current[i];
+        }
+        mean /= CELLS;
+        variance /= CELLS;
+        covariance /= CELLS;
+        assertEquals(0, mean, 5 / Math.sqrt(CELLS), "mean at phi " + phi);
+        assertEquals(1, variance, 5 * Math.sqrt(2.0 / CELLS), "variance at phi " + phi);
+        assertEquals(
+            phi, covariance, 5 * Math.sqrt((1 + phi * phi) / CELLS), "correlation at phi " + phi);
+        previous = current;
+      }
+    }
+  }
+
+  @Test
+  public void restartRepeatsTheSeries() {
+    var process = new Autoregressive(1000, 7);
+    float[][] series = new float[4][];
+    for (int step = 0; step < series.length; step++) {
+      process.advance(0.6);
+      series[step] = values(process);
+    }
+    process.restart();
+    assertEquals(-1, process.getStep());
+    for (float[] expected : series) {
+      process.advance(0.6);
+      assertArrayEquals(expected, values(process));
+    }
+  }
+
+  @Test
+  public void autocorrelationOutOfRange() {
+    var process = new Autoregressive(10, 0);
+    assertThrows(IllegalArgumentException.class, () -> process.advance(1.5));
+  }
+}
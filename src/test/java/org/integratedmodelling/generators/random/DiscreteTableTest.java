@@ -0,0 +1,83 @@
+package org.integratedmodelling.generators.random;
+
+import org.apache.commons.math3.distribution.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiscreteTableTest {
+
+  private static final int SAMPLES = 400_000;
+
+  private static List<IntegerDistribution> distributions() {
+    return List.of(
+        new PoissonDistribution(4),
+        new PoissonDistribution(250),
+        new BinomialDistribution(1000, 0.3),
+        new BinomialDistribution(20, 0.95),
+        new PascalDistribution(5, 0.4),
+        new HypergeometricDistribution(100, 30, 20),
+        new GeometricDistribution(0.2));
+  }
+
+  /** Sample mean and variance agree with the distribution within five standard errors. */
+  @Test
+  public void moments() {
+    for (var distribution : distributions()) {
+      var table = DiscreteTable.of(distribution);
+      assertNotNull(table, distribution.getClass().getSimpleName());
+      var sampler = table.sampler(new RandomStream(42));
+      double[] block = new double[SAMPLES];
+      sampler.fill(block, 0, SAMPLES);
+      double mean = 0;
+      for (double value : block) {
+        assertEquals(Math.rint(value), value);
+        mean += value;
+      }
+      mean /= SAMPLES;
+      double variance = 0, fourth = 0;
+      for (double value : block) {
+        double d = value - mean;
+        variance += d * d;
+        fourth += d * d * d * d;
+      }
+      variance /= SAMPLES - 1;
+      fourth /= SAMPLES;
+      double expectedVariance = distribution.getNumericalVariance();
+      String name = distribution.getClass().getSimpleName();
+      assertEquals(
+          distribution.getNumericalMean(),
+          mean,
+          5 * Math.sqrt(expectedVariance / SAMPLES),
+          name + " mean");
+      assertEquals(
+          expectedVariance,
+          variance,
+          5 * Math.sqrt((fourth - variance * variance) / SAMPLES),
+          name + " variance");
+    }
+  }
+
+  /** The table inverts the CDF exactly as the distribution does, tails included. */
+  @Test
+  public void inverseMatchesDistribution() {
+    var random = new RandomStream(7);
+    for (var distribution : distributions()) {
+      var table = DiscreteTable.of(distribution);
+      for (int i = 0; i < 20_000; i++) {
+        double u = random.nextDouble();
+        assertEquals(distribution.inverseCumulativeProbability(u), table.inverse(u));
+      }
+      for (double u : new double[] {0, 1e-15, 1e-9, 0.5, 1 - 1e-9, 1 - 1e-15}) {
+        assertEquals(distribution.inverseCumulativeProbability(u), table.inverse(u));
+      }
+    }
+  }
+
+  @Test
+  public void tooWideToTabulate() {
+    assertNull(DiscreteTable.of(new GeometricDistribution(1e-6)));
+  }
+}
@@ -0,0 +1,99 @@
+package org.integratedmodelling.generators.random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GaussianFieldTest {
+
+  private static final int N = 512;
+  private static final double LENGTH = 8;
+  private static final double MEAN = 10;
+  private static final double STD = 2;
+  private static final int SEEDS = 2;
+
+  /** Mean, variance and correlations at lags 1, L and 2L along both axes, averaged over seeds. */
+  private static double[] statistics(GaussianField.Covariance covariance) {
+    int[] lags = {1, (int) LENGTH, 2 * (int) LENGTH};
+    double[] ret = new double[2 + lags.length];
+    for (int seed = 0; seed < SEEDS; seed++) {
+      double[] field = new double[N * N];
+      int[] n = {0};
+      new GaussianField(covariance, LENGTH, 1.5, MEAN, STD, seed)
+          .scan(N, N, 1, 1, value -> field[n[0]++] = value);
+      assertEquals(N * N, n[0]);
+      double mean = 0;
+      for (double value : field) {
+        mean += value;
+      }
+      mean /= field.length;
+      double variance = 0;
+      for (double value : field) {
+        variance += (value - mean) * (value - mean);
+      }
+      variance /= field.length;
+      ret[0] += mean / SEEDS;
+      ret[1] += variance / SEEDS;
+      for (int l = 0; l < lags.length; l++) {
+        double sum = 0;
+        long count = 0;
+        for (int x = 0; x + lags[l] < N; x++) {
+          for (int y = 0; y + lags[l] < N; y++) {
+            double d = field[x * N + y] - mean;
+            sum +=
+                d * (field[(x + lags[l]) * N + y] - mean) + d * (field[x * N + y + lags[l]] - mean);
+            count += 2;
+          }
+        }
+        ret[2 + l] += sum / count / variance / SEEDS;
+      }
+    }
+    return ret;
+  }
+
+  private static void check(GaussianField.Covariance covariance, double atLength, double atTwice) {
+    var statistics = statistics(covariance);
+    assertEquals(MEAN, statistics[0], 0.15, covariance + " mean");
+    assertEquals(STD * STD, statistics[1], 0.1 * STD * STD, covariance + " variance");
+    assertTrue(statistics[2] > atLength, covariance + " correlation at one cell");
+    assertEquals(atLength, statistics[3], 0.05, covariance + " correlation at the length");
+    assertEquals(atTwice, statistics[4], 0.05, covariance + " correlation at twice the length");
+  }
+
+  @Test
+  public void exponentialCovariance() {
+    check(GaussianField.Covariance.EXPONENTIAL, Math.exp(-1), Math.exp(-2));
+  }
+
+  @Test
+  public void gaussianCovariance() {
+    check(GaussianField.Covariance.GAUSSIAN, Math.exp(-1), Math.exp(-4));
+  }
+
+  @Test
+  public void maternCovariance() {
+    // nu = 1.5: (1 + sqrt(3) r / length) exp(-sqrt(3) r / length)
+    double s = Math.sqrt(3);
+    check(GaussianField.Covariance.MATERN, (1 + s) * Math.exp(-s), (1 + 2 * s) * Math.exp(-2 * s));
+  }
+
+  /** Scaling the correlation length and the cell size together gives the same field. */
+  @Test
+  public void scaleInvariant() {
+    double[] a = new double[200 * 300], b = new double[200 * 300];
+    int[] n = {0, 0};
+    new GaussianField(GaussianField.Covariance.MATERN, 3, 2.5, 0, 1, 42)
+        .scan(200, 300, 1, 1, value -> a[n[0]++] = value);
+    new GaussianField(GaussianField.Covariance.MATERN, 30, 2.5, 0, 1, 42)
+        .scan(200, 300, 10, 10, value -> b[n[1]++] = value);
+    assertArrayEquals(a, b, 1e-9);
+  }
+
+  /** Correlation lengths needing tiles beyond an array fail up front instead of overflowing. */
+  @Test
+  public void tileTooLarge() {
+    var field = new GaussianField(GaussianField.Covariance.EXPONENTIAL, 50_000, 1.5, 0, 1, 42);
+    assertThrows(
+        IllegalArgumentException.class, () -> field.scan(524_288, 524_288, 1, 1, value -> {}));
+  }
+}
@@ -0,0 +1,128 @@
+package org.integratedmodelling.generators.random;
+
+import org.apache.commons.math3.distribution.UniformRealDistribution;
+import org.apache.commons.math3.random.SobolSequenceGenerator;
+import org.integratedmodelling.generators.random.QuasiRandom.Sequence;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuasiRandomTest {
+
+  private static final long[] CELLS = {0, 1, 2, 1000, 65535, 65536, 1_000_003};
+
+  /**
+   * The values of a cell over the first runs fall one in each interval of that length, which is
+   * what the adapter relies on to spread a cell evenly over the runs.
+   */
+  private static void checkStratified(QuasiRandom sequence, int runs) {
+    for (long cell : CELLS) {
+      boolean[] hit = new boolean[runs];
+      for (int run = 0; run < runs; run++) {
+        double u = sequence.get(run, cell);
+        assertTrue(u > 0 && u < 1, "value out of (0, 1): " + u);
+        int bin = (int) (u * runs);
+        assertFalse(hit[bin], "two runs of cell " + cell + " in interval " + bin);
+        hit[bin] = true;
+      }
+    }
+  }
+
+  @Test
+  public void sobolCellsAreStratifiedOverRuns() {
+    for (int dimension : new int[] {0, 1, 5, 31}) {
+      checkStratified(QuasiRandom.of(Sequence.SOBOL, dimension, 0), 256);
+    }
+  }
+
+  @Test
+  public void haltonCellsAreStratifiedOverRuns() {
+    // bases 2, 3 and 5
+    checkStratified(QuasiRandom.of(Sequence.HALTON, 0, 0), 256);
+    checkStratified(QuasiRandom.of(Sequence.HALTON, 1, 0), 243);
+    checkStratified(QuasiRandom.of(Sequence.HALTON, 2, 0), 125);
+  }
+
+  @Test
+  public void cellsAreRandomizedIndependently() {
+    for (var type : Sequence.values()) {
+      var sequence = QuasiRandom.of(type, 3, 0);
+      for (int run = 0; run < 4; run++) {
+        double[] values = new double[CELLS.length];
+        for (int i = 0; i < CELLS.length; i++) {
+          values[i] = sequence.get(run, CELLS[i]);
+          for (int j = 0; j < i; j++) {
+            assertNotEquals(values[j], values[i], type + ": cells share a value in run " + run);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void fillMatchesGet() {
+    for (var type : Sequence.values()) {
+      var sequence = QuasiRandom.of(type, 2, 42);
+      double[] block = new double[100];
+      sequence.fill(7, 65500, block, 0, block.length);
+      for (int i = 0; i < block.length; i++) {
+        assertEquals(sequence.get(7, 65500 + i), block[i], type.toString());
+      }
+    }
+  }
+
+  /**
+   * Samplers fill consecutive cells with the same run, as the adapter does in each chunk; the
+   * values of a cell over the runs must still be evenly spread.
+   */
+  @Test
+  public void inverseSamplerIsStratifiedOverRuns() {
+    int runs = 128, cells = 1000;
+    var sequence = QuasiRandom.of(Sequence.SOBOL, 4, 7);
+    var distribution = new UniformRealDistribution(0, 1);
+    boolean[][] hit = new boolean[cells][runs];
+    double[] block = new double[cells];
+    for (int run = 0; run < runs; run++) {
+      Samplers.inverse(distribution, null, sequence, run, 0).fill(block, 0, cells);
+      for (int cell = 0; cell < cells; cell++) {
+        int bin = (int) (block[cell] * runs);
+        assertFalse(hit[cell][bin], "two runs of cell " + cell + " in interval " + bin);
+        hit[cell][bin] = true;
+      }
+    }
+  }
+
+  /**
+   * Removing the shift of a stream, which is its first point, leaves the unrandomized Sobol points,
+   * which must be those of the Joe and Kuo direction numbers as generated by commons-math.
+   */
+  @Test
+  public void sobolMatchesReference() {
+    int dimensions = QuasiRandom.DIMENSIONS;
+    QuasiRandom[] sequences = new QuasiRandom[dimensions];
+    for (int d = 0; d < dimensions; d++) {
+      sequences[d] = QuasiRandom.of(Sequence.SOBOL, d, 11);
+    }
+    for (long stream : new long[] {0, 12345}) {
+      long[] shifts = new long[dimensions];
+      for (int d = 0; d < dimensions; d++) {
+        shifts[d] = bits(sequences[d].get(0, stream));
+      }
+      var reference = new SobolSequenceGenerator(dimensions);
+      for (int i = 0; i < 1024; i++) {
+        double[] expected = reference.nextVector();
+        for (int d = 0; d < dimensions; d++) {
+          assertEquals(
+              bits(expected[d]),
+              bits(sequences[d].get(i, stream)) ^ shifts[d],
+              "point " + i + " of dimension " + d);
+        }
+      }
+    }
+  }
+
+  /** The 52 bits of a point, dropping the half cell it is centered by. */
+  private static long bits(double u) {
+    return (long) Math.scalb(u, 52);
+  }
+}
@@ -0,0 +1,113 @@
+package org.integratedmodelling.generators.random;
+
+import org.apache.commons.math3.distribution.*;
+import org.apache.commons.math3.stat.inference.KolmogorovSmirnovTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SamplersTest {
+
+  private static final int SAMPLES = 400_000;
+
+  private static List<RealDistribution> distributions() {
+    return List.of(
+        new NormalDistribution(10, 2),
+        new LogNormalDistribution(0, 0.5),
+        new ExponentialDistribution(3),
+        new WeibullDistribution(1.5, 2),
+        new WeibullDistribution(0.7, 1),
+        new UniformRealDistribution(-1, 4),
+        new TriangularDistribution(0, 0.2, 1),
+        new TriangularDistribution(0, 1, 1));
+  }
+
+  private static double[] sample(Sampler sampler) {
+    double[] ret = new double[SAMPLES];
+    // half in a block and half one at a time, so that both paths are checked
+    sampler.fill(ret, 0, SAMPLES / 2);
+    for (int i = SAMPLES / 2; i < SAMPLES; i++) {
+      ret[i] = sampler.sample();
+    }
+    return ret;
+  }
+
+  /** Mean and variance within five standard errors of the distribution's. */
+  private static void checkMoments(RealDistribution distribution, double[] values, String name) {
+    double mean = 0;
+    for (double value : values) {
+      mean += value;
+    }
+    mean /= values.length;
+    double variance = 0, fourth = 0;
+    for (double value : values) {
+      double d = value - mean;
+      variance += d * d;
+      fourth += d * d * d * d;
+    }
+    variance /= values.length - 1;
+    fourth /= values.length;
+    assertEquals(
+        distribution.getNumericalMean(),
+        mean,
+        5 * Math.sqrt(distribution.getNumericalVariance() / values.length),
+        name + " mean");
+    assertEquals(
+        distribution.getNumericalVariance(),
+        variance,
+        5 * Math.sqrt((fourth - variance * variance) / values.length),
+        name + " variance");
+  }
+
+  @Test
+  public void directSamplersMoments() {
+    for (var distribution : distributions()) {
+      var sampler = Samplers.direct(distribution, new RandomStream(42));
+      assertNotNull(sampler, distribution.getClass().getSimpleName());
+      checkMoments(distribution, sample(sampler), distribution.getClass().getSimpleName());
+    }
+  }
+
+  /** The whole shape of the distribution, not only its moments. */
+  @Test
+  public void directSamplersFollowTheDistribution() {
+    var test = new KolmogorovSmirnovTest();
+    for (var distribution : distributions()) {
+      double[] values = sample(Samplers.direct(distribution, new RandomStream(7)));
+      double[] first = Arrays.copyOf(values, 50_000);
+      assertTrue(
+          test.kolmogorovSmirnovTest(distribution, first) > 1e-4,
+          distribution.getClass().getSimpleName());
+    }
+  }
+
+  @Test
+  public void zigguratMoments() {
+    var random = new RandomStream(3);
+    double[] normal = new double[SAMPLES], exponential = new double[SAMPLES];
+    for (int i = 0; i < SAMPLES; i++) {
+      normal[i] = Ziggurat.normal(random);
+      exponential[i] = Ziggurat.exponential(random);
+    }
+    checkMoments(new NormalDistribution(0, 1), normal, "normal");
+    checkMoments(new ExponentialDistribution(1), exponential, "exponential");
+    // tails beyond the base layers are sampled too
+    long beyond = 0;
+    for (double value : normal) {
+      if (Math.abs(value) > 3.442619855899) {
+        beyond++;
+      }
+    }
+    double expected = 2 * (1 - new NormalDistribution(0, 1).cumulativeProbability(3.442619855899));
+    assertEquals(expected * SAMPLES, beyond, 5 * Math.sqrt(expected * SAMPLES));
+  }
+
+  @Test
+  public void noDirectMethod() {
+    assertNull(Samplers.direct(new GammaDistribution(2, 2), new RandomStream(1)));
+    assertNull(Samplers.direct(new PoissonDistribution(3), new RandomStream(1)));
+  }
+}
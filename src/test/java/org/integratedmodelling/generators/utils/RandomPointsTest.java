@@ -0,0 +1,96 @@
+package org.integratedmodelling.generators.utils;
+
+import org.integratedmodelling.klab.api.knowledge.observation.scale.space.Envelope;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RandomPointsTest {
+
+  private static final double X0 = -20, X1 = 80, Y0 = 5, Y1 = 55;
+
+  static Envelope envelope() {
+    return (Envelope)
+        Proxy.newProxyInstance(
+            Envelope.class.getClassLoader(),
+            new Class<?>[] {Envelope.class},
+            (proxy, method, args) ->
+                switch (method.getName()) {
+                  case "getMinX" -> X0;
+                  case "getMaxX" -> X1;
+                  case "getMinY" -> Y0;
+                  case "getMaxY" -> Y1;
+                  case "toString" -> "[" + X0 + " " + X1 + " " + Y0 + " " + Y1 + "]";
+                  default -> null;
+                });
+  }
+
+  private static void checkBounds(double[] points) {
+    for (int i = 0; i < points.length; i += 2) {
+      double x = points[i], y = points[i + 1];
+      assertTrue(x >= X0 && x < X1 && y >= Y0 && y < Y1, "point outside: " + x + ", " + y);
+    }
+  }
+
+  /** Smallest distance between two points, sweeping them in order of x. */
+  private static double minimumDistance(double[] points) {
+    Integer[] order = IntStream.range(0, points.length / 2).boxed().toArray(Integer[]::new);
+    Arrays.sort(order, Comparator.comparingDouble(i -> points[2 * i]));
+    double ret = Double.POSITIVE_INFINITY;
+    for (int a = 0; a < order.length; a++) {
+      double xa = points[2 * order[a]], ya = points[2 * order[a] + 1];
+      for (int b = a + 1; b < order.length && points[2 * order[b]] - xa < ret; b++) {
+        double dx = points[2 * order[b]] - xa, dy = points[2 * order[b] + 1] - ya;
+        ret = Math.min(ret, Math.sqrt(dx * dx + dy * dy));
+      }
+    }
+    return ret;
+  }
+
+  @Test
+  public void poissonDiskKeepsDistanceAndBounds() {
+    var envelope = envelope();
+    for (long count : new long[] {2000, 20000, 100000}) {
+      double distance = RandomPoints.distanceFor(envelope, count);
+      double[] points = new RandomPoints(count).poissonDisk(envelope, distance);
+      checkBounds(points);
+      assertTrue(minimumDistance(points) >= distance, "points closer than " + distance);
+      // the packing constant is measured on large patterns, so the count is only near the target
+      assertEquals(count, points.length / 2, 0.1 * count, "points for a target of " + count);
+    }
+  }
+
+  @Test
+  public void poissonDiskIsReproducible() {
+    var envelope = envelope();
+    assertArrayEquals(
+        new RandomPoints(3).poissonDisk(envelope, 1), new RandomPoints(3).poissonDisk(envelope, 1));
+  }
+
+  @Test
+  public void clusteredKeepsDistanceAndBounds() {
+    var envelope = envelope();
+    double[] free = new RandomPoints(5).clustered(envelope, 40, 50, 3, 0);
+    checkBounds(free);
+    assertTrue(free.length > 0);
+
+    double[] spaced = new RandomPoints(5).clustered(envelope, 40, 50, 3, 0.5);
+    checkBounds(spaced);
+    assertTrue(minimumDistance(spaced) >= 0.5, "clustered points closer than the distance");
+  }
+
+  @Test
+  public void distanceTooSmall() {
+    var envelope = envelope();
+    var generator = new RandomPoints(0);
+    assertThrows(IllegalArgumentException.class, () -> generator.poissonDisk(envelope, 1e-6));
+    assertThrows(IllegalArgumentException.class, () -> generator.poissonDisk(envelope, 0));
+    assertThrows(
+        IllegalArgumentException.class, () -> generator.clustered(envelope, 10, 10, 1, 1e-6));
+  }
+}
@@ -0,0 +1,39 @@
+package org.integratedmodelling.generators.utils;
+
+import org.integratedmodelling.generators.random.RandomStream;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.operation.valid.IsValidOp;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RandomShapesTest {
+
+  private static final GeometryFactory factory = new GeometryFactory();
+
+  /** Polygons are valid, have the vertices asked for and stay in their box, at any shape. */
+  @Test
+  public void starPolygonsAreValid() {
+    var random = new RandomStream(42);
+    double[][] boxes = {{0, 1, 0, 1}, {10, 10.001, -5, 5}, {-1e6, 1e6, 3, 3.5}, {0, 1e-6, 0, 1e-6}};
+    for (double[] box : boxes) {
+      var envelope = new Envelope(box[0], box[1], box[2], box[3]);
+      for (int vertices = 3; vertices <= 64; vertices++) {
+        for (int k = 0; k < 100; k++) {
+          int n = vertices;
+          double[] coordinates = new double[2 * (vertices + 1)];
+          RandomShapes.starPolygon(box[0], box[1], box[2], box[3], vertices, random, coordinates);
+          var polygon =
+              factory.createPolygon(new PackedCoordinateSequence.Double(coordinates, 2, 0));
+          var validity = new IsValidOp(polygon).getValidationError();
+          assertNull(validity, () -> n + " vertices in " + envelope + ": " + validity);
+          assertEquals(vertices + 1, polygon.getNumPoints());
+          assertTrue(envelope.covers(polygon.getEnvelopeInternal()));
+          assertTrue(polygon.getArea() > 0);
+        }
+      }
+    }
+  }
+}